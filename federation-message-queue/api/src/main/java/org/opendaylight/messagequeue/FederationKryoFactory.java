@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.messagequeue;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link Kryo} instances that have the federation message classes pre-registered with fixed ids, so the wire
+ * carries a small class id instead of the full class name. The ids are part of the wire format and must be identical
+ * on all sites, so new classes may only be appended to {@link #REGISTERED_CLASS_NAMES}. The classes are registered by
+ * name because they belong to bundles which this bundle does not depend on; a class that can't be resolved by the
+ * given class loader is skipped without shifting the ids of the other classes. All the message buses encode with it,
+ * so they agree on the ids.
+ *
+ * <p>A bus that reads from peers it doesn't fully trust can require registration, so Kryo refuses to load any class
+ * that isn't registered. Such a bus may register further classes, e.g. the subscription payloads of its plugins, which
+ * get ids from {@link #FIRST_EXTRA_REGISTRATION_ID} on in the order given.
+ */
+public class FederationKryoFactory implements KryoFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FederationKryoFactory.class);
+
+    static final int FIRST_REGISTRATION_ID = 20;
+    static final int FIRST_EXTRA_REGISTRATION_ID = 1000;
+
+    static final List<String> REGISTERED_CLASS_NAMES = Collections.unmodifiableList(Arrays.asList(
+        "org.opendaylight.federation.service.api.message.WrapperEntityFederationMessage",
+        "org.opendaylight.federation.service.common.api.EntityFederationMessage",
+        "org.opendaylight.federation.service.api.message.SubscribeMessage",
+        "org.opendaylight.federation.service.api.message.UnsubscribeMessage",
+        "org.opendaylight.federation.service.api.message.StartFullSyncFederationMessage",
+        "org.opendaylight.federation.service.api.message.EndFullSyncFederationMessage",
+        "org.opendaylight.federation.service.api.message.FullSyncFailedFederationMessage",
+        "org.opendaylight.federation.service.api.message.BatchEntityFederationMessage",
+        "java.util.ArrayList"));
+
+    private final ClassLoader classLoader;
+    private final List<Class<?>> registeredClasses;
+    private final List<Class<?>> extraClasses;
+    private final boolean registrationRequired;
+
+    public FederationKryoFactory(ClassLoader classLoader) {
+        this(classLoader, Collections.emptyList(), false);
+    }
+
+    /**
+     * Creates a factory of Kryo instances that may require registration.
+     *
+     * @param extraClassNames Classes to register in addition to the message classes. The list must be the same on
+     *     all sites.
+     * @param registrationRequired Whether Kryo refuses to write or read classes that aren't registered.
+     */
+    public FederationKryoFactory(ClassLoader classLoader, List<String> extraClassNames,
+        boolean registrationRequired) {
+        this.classLoader = classLoader;
+        this.registeredClasses = resolveClasses(REGISTERED_CLASS_NAMES, classLoader);
+        this.extraClasses = resolveClasses(extraClassNames, classLoader);
+        this.registrationRequired = registrationRequired;
+    }
+
+    @Override
+    public Kryo create() {
+        Kryo kryo = new Kryo();
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        kryo.setClassLoader(classLoader);
+        kryo.setRegistrationRequired(registrationRequired);
+        register(kryo, registeredClasses, FIRST_REGISTRATION_ID);
+        register(kryo, extraClasses, FIRST_EXTRA_REGISTRATION_ID);
+        return kryo;
+    }
+
+    private static void register(Kryo kryo, List<Class<?>> classes, int firstId) {
+        for (int i = 0; i < classes.size(); i++) {
+            Class<?> clazz = classes.get(i);
+            if (clazz != null) {
+                kryo.register(clazz, firstId + i);
+            }
+        }
+    }
+
+    private static List<Class<?>> resolveClasses(List<String> classNames, ClassLoader classLoader) {
+        List<Class<?>> classes = new ArrayList<>(classNames.size());
+        for (String className : classNames) {
+            try {
+                classes.add(Class.forName(className, false, classLoader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOG.warn("Couldn't register {} in Kryo, buses that don't require registration send it with its "
+                    + "full class name", className);
+                classes.add(null);
+            }
+        }
+        return classes;
+    }
+}
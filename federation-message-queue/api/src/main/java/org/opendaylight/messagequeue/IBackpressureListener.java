@@ -0,0 +1,16 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.messagequeue;
+
+/**
+ * Notified when the transport of a queue can't keep up, e.g. because the broker blocked the connection since it is
+ * short of memory or disk, and when it recovers. Messages sent in the meantime may be delayed or block the sender.
+ */
+public interface IBackpressureListener {
+    void backpressureChanged(String queueName, boolean applied);
+}
@@ -12,4 +12,14 @@ package org.opendaylight.messagequeue;
  */
 public interface IGeneralFederationConsumer {
     void consumeMsg(AbstractFederationMessage msg);
+
+    /**
+     * Invoked by transports that decode messages on several threads, right after a message was decoded and before it
+     * is passed to {@link #consumeMsg(AbstractFederationMessage)}, which still happens one message at a time and in
+     * order. It lets the consumer do expensive preparation of the message, such as decoding its payload, in parallel.
+     * Unlike consumeMsg, it may be called concurrently for different messages of the same queue. The default
+     * implementation does nothing.
+     */
+    default void decodeAhead(AbstractFederationMessage msg) {
+    }
 }
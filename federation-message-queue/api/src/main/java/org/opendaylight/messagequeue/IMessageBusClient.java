@@ -7,6 +7,9 @@
  */
 package org.opendaylight.messagequeue;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * The message queue library API which is consumed internally by the federation service infrastructure in order to
  * facilitate the low level queuing and messaging between sites.
@@ -24,4 +27,121 @@ public interface IMessageBusClient {
     boolean createQueue(String queueName, String mqBrokerIp, int mqPortNumber, String mqUser, String mqUserPwd);
 
     boolean createQueue(String queueName, String brokerIp);
+
+    /**
+     * Sets the listener that is notified about messages sent to the queue which are known to be lost. The listener
+     * is dropped when the queue is destroyed or created again. Transports that can't tell that a message was lost
+     * ignore it.
+     *
+     * @param queueName A queue that was created by this client.
+     * @param listener The listener, or null to remove the current one.
+     */
+    default void setPublishFailureListener(String queueName, IPublishFailureListener listener) {
+    }
+
+    /**
+     * Allows compressing the messages sent to the queue. It should only be enabled when the consuming side announced
+     * that it can decompress, since the decision to compress each message is left to the implementation. Transports
+     * that never compress ignore it.
+     *
+     * @param queueName A queue that was created by this client.
+     * @param compress Whether messages to the queue may be compressed.
+     */
+    default void setPayloadCompression(String queueName, boolean compress) {
+    }
+
+    /**
+     * Sets the listener that is notified when backpressure on the queue is applied or released. The listener is
+     * dropped when the queue is destroyed or created again. Transports that never apply backpressure ignore it.
+     *
+     * @param queueName A queue that was created by this client.
+     * @param listener The listener, or null to remove the current one.
+     */
+    default void setBackpressureListener(String queueName, IBackpressureListener listener) {
+    }
+
+    /**
+     * Whether messages sent to the queue right now would be delayed.
+     */
+    default boolean isBackpressured(String queueName) {
+        return false;
+    }
+
+    /**
+     * Whether the messages are serialized when they are sent. A transport that passes them by reference never
+     * encodes what they carry, so senders need not encode it ahead either.
+     */
+    default boolean serializesMessages() {
+        return true;
+    }
+
+    /*
+     * Asynchronous variants. Operations on the same queue are applied in the order they were requested, so e.g. a
+     * queue can be destroyed and created again without waiting in between. The default implementations run the
+     * blocking methods in the calling thread; transports that can do better override them.
+     */
+
+    /**
+     * Creates the queue asynchronously.
+     *
+     * @return A stage completed with whether the queue was created.
+     */
+    @SuppressWarnings(value = { "checkstyle:illegalcatch" })
+    default CompletionStage<Boolean> createQueueAsync(String queueName, String mqBrokerIp, int mqPortNumber,
+        String mqUser, String mqUserPwd) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            result.complete(createQueue(queueName, mqBrokerIp, mqPortNumber, mqUser, mqUserPwd));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @SuppressWarnings(value = { "checkstyle:illegalcatch" })
+    default CompletionStage<Void> destroyQueueAsync(String queueName) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            destroyQueue(queueName);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Attaches the handler asynchronously.
+     *
+     * @return A stage completed with the handler tag, or with null if the handler couldn't be attached.
+     */
+    @SuppressWarnings(value = { "checkstyle:illegalcatch" })
+    default CompletionStage<String> attachHandlerAsync(String queueName, IGeneralFederationConsumer consumer) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            result.complete(attachHandler(queueName, consumer));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the message asynchronously. Messages sent through this method and through {@link #sendMsg} to the same
+     * queue aren't ordered relative to each other.
+     *
+     * @return A stage completed once the transport took responsibility for the message, which is when the broker
+     *     confirmed it if the transport supports that, or completed exceptionally if it is known to be lost.
+     */
+    @SuppressWarnings(value = { "checkstyle:illegalcatch" })
+    default CompletionStage<Void> sendMsgAsync(AbstractFederationMessage msg, String queueName) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            sendMsg(msg, queueName);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
 }
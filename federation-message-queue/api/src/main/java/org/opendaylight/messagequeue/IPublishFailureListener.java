@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.messagequeue;
+
+/**
+ * Notified when messages that were handed to {@link IMessageBusClient#sendMsg(AbstractFederationMessage, String)}
+ * are known not to have reached the queue, for example because the broker rejected them or didn't confirm them in
+ * time. Only message bus implementations that track delivery to the broker invoke it.
+ */
+public interface IPublishFailureListener {
+
+    /**
+     * Invoked from an internal thread of the message bus, which must not be blocked.
+     *
+     * @param queueName The queue the messages were sent to.
+     * @param failedMessages The number of messages that failed.
+     * @param reason A human readable description of the failure.
+     */
+    void publishFailed(String queueName, int failedMessages, String reason);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class loader that remembers every class its parent resolved, so repeated lookups of the same message classes by
+ * Kryo don't walk the OSGi bundle wiring again. It never defines classes itself. Instances hold on to the classes
+ * of the bundles they resolved from, so they must be dropped when those bundles are refreshed.
+ */
+final class CachingClassLoader extends ClassLoader {
+
+    private final ConcurrentMap<String, Class<?>> nameToClass = new ConcurrentHashMap<>();
+
+    CachingClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> clazz = nameToClass.get(name);
+        if (clazz == null) {
+            clazz = super.loadClass(name, resolve);
+            nameToClass.putIfAbsent(name, clazz);
+        }
+        return clazz;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the deliveries of one consumer on a shared executor, several at a time, and passes them on in delivery
+ * order. At most a fixed number of deliveries may be in the pipeline, which bounds the memory held by messages that
+ * wait for their turn behind a slow one.
+ */
+@SuppressWarnings(value = { "checkstyle:illegalcatch" })
+class DecodePipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DecodePipeline.class);
+
+    /**
+     * Receives the deliveries in delivery order, on whichever decode thread finished the oldest one.
+     */
+    interface Receiver {
+        /**
+         * Passes on one delivery.
+         *
+         * @param msg The message, or null if it couldn't be decoded.
+         */
+        void deliver(AbstractFederationMessage msg, long deliveryTag);
+    }
+
+    private final Queue<PendingDelivery> pendingDeliveries = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean delivering = new AtomicBoolean();
+    private final Semaphore window;
+    private final BooleanSupplier closed;
+    private final Receiver receiver;
+    // set when the bus closes while deliveries are in the pipeline, they are no longer passed on
+    private volatile boolean abandoned;
+
+    /**
+     * Creates the pipeline of one consumer.
+     *
+     * @param closed Tells whether the bus closed, so a delivery that waits for a place should be dropped.
+     */
+    DecodePipeline(int maxPendingDeliveries, BooleanSupplier closed, Receiver receiver) {
+        this.window = new Semaphore(maxPendingDeliveries);
+        this.closed = closed;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Puts a delivery into the pipeline and decodes it on the executor. Called by the dispatch thread of the
+     * consumer, which waits while the pipeline is full.
+     *
+     * @param decoder Decodes the delivery, returns null if it couldn't be decoded.
+     * @return false if the delivery was dropped because the bus closed, it is then never passed on.
+     */
+    boolean submit(long deliveryTag, Supplier<AbstractFederationMessage> decoder, Executor executor) {
+        if (abandoned) {
+            return false;
+        }
+        try {
+            while (!window.tryAcquire(1, TimeUnit.SECONDS)) {
+                if (closed.getAsBoolean() || abandoned) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        PendingDelivery pending = new PendingDelivery(deliveryTag);
+        pendingDeliveries.add(pending);
+        DecodeTask task = new DecodeTask(pending, decoder);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the bus is closing
+            task.abandon();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the pipeline was abandoned because the bus closed.
+     */
+    boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * The number of deliveries that can be put into the pipeline without waiting.
+     */
+    int freePlaces() {
+        return window.availablePermits();
+    }
+
+    /**
+     * Decodes one delivery on the decode executor. Whatever happens, the delivery is marked as decoded and the
+     * pipeline moves on, a delivery stuck at its head would hold up the queue for good.
+     */
+    final class DecodeTask implements Runnable {
+        private final PendingDelivery pending;
+        private final Supplier<AbstractFederationMessage> decoder;
+
+        DecodeTask(PendingDelivery pending, Supplier<AbstractFederationMessage> decoder) {
+            this.pending = pending;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void run() {
+            try {
+                pending.msg = decoder.get();
+            } catch (Throwable e) {
+                LOG.error("Failed decoding message: " + e.getMessage(), e);
+            } finally {
+                pending.decoded = true;
+                deliverDecoded();
+            }
+        }
+
+        /**
+         * Called for a task that will never run because the bus is closing. The deliveries of the pipeline that
+         * weren't passed on yet are dropped, so they are never acked and the broker redelivers them.
+         */
+        void abandon() {
+            abandoned = true;
+            pending.decoded = true;
+            deliverDecoded();
+        }
+    }
+
+    /*
+     * Passes the decoded deliveries at the head of the pipeline on, in delivery order. Whichever decode thread
+     * finishes the head delivery passes it on, and any deliveries behind it that are already decoded.
+     */
+    private void deliverDecoded() {
+        PendingDelivery head;
+        do {
+            if (!delivering.compareAndSet(false, true)) {
+                // the thread that is delivering rechecks the head once it is done
+                return;
+            }
+            try {
+                while ((head = pendingDeliveries.peek()) != null && head.decoded) {
+                    pendingDeliveries.poll();
+                    window.release();
+                    if (!abandoned) {
+                        receiver.deliver(head.msg, head.deliveryTag);
+                    }
+                }
+            } finally {
+                delivering.set(false);
+            }
+            head = pendingDeliveries.peek();
+        } while (head != null && head.decoded);
+    }
+
+    private static final class PendingDelivery {
+        private final long deliveryTag;
+        private volatile boolean decoded;
+        // written before decoded is set
+        private AbstractFederationMessage msg;
+
+        PendingDelivery(long deliveryTag) {
+            this.deliveryTag = deliveryTag;
+        }
+    }
+}
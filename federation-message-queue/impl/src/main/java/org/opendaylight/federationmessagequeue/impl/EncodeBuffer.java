@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A reusable Kryo {@link Output} that is kept per encoding thread. The buffer grows as needed while encoding, and is
+ * shrunk back when it is much larger than the recent messages, so one huge message doesn't pin a huge array forever.
+ */
+final class EncodeBuffer {
+
+    private static final int MIN_CAPACITY = 4096;
+    private static final int SHRINK_FACTOR = 8;
+
+    private static final ThreadLocal<EncodeBuffer> BUFFERS = ThreadLocal.withInitial(EncodeBuffer::new);
+
+    private final Output output = new Output(MIN_CAPACITY, -1);
+    // exponential moving average of the encoded sizes, with a weight of 1/8 for the newest one
+    private int averageSize = MIN_CAPACITY;
+
+    private EncodeBuffer() {
+    }
+
+    static EncodeBuffer get() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * Starts a new message. The returned output and its buffer are only valid until {@link #release()}.
+     */
+    Output begin() {
+        output.clear();
+        return output;
+    }
+
+    /**
+     * Ends the current message and adapts the buffer to the sizes of the recent messages.
+     */
+    void release() {
+        int size = output.position();
+        averageSize += (size - averageSize) >> 3;
+        int targetCapacity = Math.max(MIN_CAPACITY, averageSize * 2);
+        if (output.getBuffer().length > targetCapacity * SHRINK_FACTOR) {
+            output.setBuffer(new byte[targetCapacity], -1);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the encoded messages of one queue that couldn't be published, so they can be published in
+ * order once the broker is reachable again instead of being lost. The records are kept in memory-mapped segment
+ * files, which keeps an outage from filling the heap; a segment is deleted as soon as all its records were published.
+ * The journal only bridges outages of a running bus and is not replayed after a restart, since the sequence ids of
+ * the messages in it are meaningless to a consumer that subscribed again, so leftover files are deleted on creation.
+ *
+ * <p>Each record is the length of the body as an int, a flags byte and the encoded body. Instances are not thread
+ * safe, the owner of the queue must serialize the calls.
+ */
+final class OutboundJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboundJournal.class);
+
+    private static final String FILE_SUFFIX = ".journal";
+    private static final int RECORD_HEADER_BYTES = 5;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private final Path directory;
+    private final String filePrefix;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentIndex = 0;
+    private long journaledBytes = 0;
+    private int journaledMessages = 0;
+
+    /**
+     * Publishes one record of the journal.
+     */
+    interface RecordPublisher {
+        /**
+         * Publishes the body. Draining stops at the first record that fails and retries it on the next drain.
+         */
+        void publish(byte[] body, boolean compressed) throws IOException;
+    }
+
+    OutboundJournal(Path directory, String queueName, int segmentBytes, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.filePrefix = encodeQueueName(queueName) + ".";
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        deleteLeftovers();
+    }
+
+    boolean isEmpty() {
+        return journaledMessages == 0;
+    }
+
+    int size() {
+        return journaledMessages;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return false if the journal is full, in which case the message is lost.
+     */
+    boolean append(byte[] body, int length, boolean compressed) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + length;
+        if (journaledBytes + recordBytes > maxBytes) {
+            return false;
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.buffer.remaining() < recordBytes) {
+            tail = createSegment(Math.max(segmentBytes, recordBytes));
+        }
+        tail.buffer.putInt(length);
+        tail.buffer.put(compressed ? FLAG_COMPRESSED : 0);
+        tail.buffer.put(body, 0, length);
+        journaledBytes += recordBytes;
+        journaledMessages++;
+        return true;
+    }
+
+    /**
+     * Publishes the records in the order they were appended, until the journal is empty or a publish fails.
+     *
+     * @return The number of records that were published.
+     */
+    int drain(RecordPublisher publisher) throws IOException {
+        int drained = 0;
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            if (head.readPosition == head.buffer.position()) {
+                if (head == segments.peekLast()) {
+                    // everything was published, the tail segment is kept for the next outage
+                    break;
+                }
+                deleteSegment(segments.pollFirst());
+                continue;
+            }
+            int length = head.buffer.getInt(head.readPosition);
+            boolean compressed = (head.buffer.get(head.readPosition + 4) & FLAG_COMPRESSED) != 0;
+            byte[] body = new byte[length];
+            ByteBuffer record = head.buffer.duplicate();
+            record.position(head.readPosition + RECORD_HEADER_BYTES);
+            record.get(body);
+            publisher.publish(body, compressed);
+            head.readPosition += RECORD_HEADER_BYTES + length;
+            journaledBytes -= RECORD_HEADER_BYTES + length;
+            journaledMessages--;
+            drained++;
+        }
+        if (journaledMessages == 0 && !segments.isEmpty()) {
+            // rewind the remaining segment, so it is reused from its start
+            Segment tail = segments.peekFirst();
+            tail.buffer.clear();
+            tail.readPosition = 0;
+        }
+        return drained;
+    }
+
+    /**
+     * Drops every record and deletes the segment files.
+     */
+    void close() {
+        if (journaledMessages > 0) {
+            LOG.warn("Dropping {} journaled messages of {}", journaledMessages, filePrefix);
+        }
+        while (!segments.isEmpty()) {
+            deleteSegment(segments.pollFirst());
+        }
+        journaledBytes = 0;
+        journaledMessages = 0;
+    }
+
+    /**
+     * Encodes the queue name for the names of its segment files. Characters other than letters, digits, '_' and '-'
+     * are escaped as '%' and the hex of their UTF-8 bytes, so different queue names never share a prefix, and the dot
+     * that ends the prefix never occurs in it.
+     */
+    static String encodeQueueName(String queueName) {
+        StringBuilder encoded = new StringBuilder(queueName.length());
+        for (byte b : queueName.getBytes(StandardCharsets.UTF_8)) {
+            if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_' || b == '-') {
+                encoded.append((char) b);
+            } else {
+                encoded.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        Path file = directory.resolve(filePrefix + nextSegmentIndex++ + FILE_SUFFIX);
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(file, buffer);
+            segments.addLast(segment);
+            LOG.debug("Created journal segment {} of {} bytes", file, size);
+            return segment;
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete journal segment {}", segment.file, e);
+        }
+    }
+
+    private void deleteLeftovers() throws IOException {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, filePrefix + "*" + FILE_SUFFIX)) {
+            for (Path leftover : leftovers) {
+                LOG.info("Deleting journal segment {} of a previous run", leftover);
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int readPosition = 0;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses message bodies with raw deflate at the fastest level. A compressed body starts with the length of the
+ * uncompressed body as a 4 byte big endian int, so it can be inflated in one pass into an array of the right size.
+ * Deflater and Inflater hold native memory, so one of each is kept per thread instead of being created per message.
+ */
+final class PayloadCompression {
+
+    static final String CONTENT_ENCODING = "x-federation-deflate";
+
+    // guards against allocating whatever a corrupted length says, no message comes close to it
+    static final int MAX_BODY_BYTES = 256 * 1024 * 1024;
+
+    // deflate can't shrink anything more than this, so a larger length is corrupted too
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+        ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * Compresses the first length bytes of the given array.
+     *
+     * @return The compressed body, or null if compressing doesn't make it smaller.
+     */
+    static byte[] compress(byte[] body, int length) {
+        if (length <= 4) {
+            return null;
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(body, 0, length);
+        deflater.finish();
+        // not worth sending compressed unless it saves something
+        byte[] compressed = new byte[length];
+        writeInt(compressed, length);
+        int compressedLength = 4;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                return null;
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        return Arrays.copyOf(compressed, compressedLength);
+    }
+
+    static byte[] decompress(byte[] compressed) throws IOException {
+        if (compressed.length < 4) {
+            throw new IOException("Compressed body is too short: " + compressed.length);
+        }
+        int length = readInt(compressed);
+        if (length < 0 || length > MAX_BODY_BYTES) {
+            throw new IOException("Invalid uncompressed length " + length);
+        }
+        if (length > (long) (compressed.length - 4) * MAX_DEFLATE_RATIO) {
+            throw new IOException("Uncompressed length " + length + " can't be inflated from "
+                + (compressed.length - 4) + " bytes");
+        }
+        byte[] body = new byte[length];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed, 4, compressed.length - 4);
+        try {
+            int inflated = 0;
+            while (inflated < length) {
+                int count = inflater.inflate(body, inflated, length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed body ended after " + inflated + " of " + length + " bytes");
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed body", e);
+        }
+        return body;
+    }
+
+    private static void writeInt(byte[] array, int value) {
+        array[0] = (byte) (value >>> 24);
+        array[1] = (byte) (value >>> 16);
+        array[2] = (byte) (value >>> 8);
+        array[3] = (byte) value;
+    }
+
+    private static int readInt(byte[] array) {
+        return (array[0] & 0xFF) << 24 | (array[1] & 0xFF) << 16 | (array[2] & 0xFF) << 8 | array[3] & 0xFF;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import com.rabbitmq.client.ConfirmListener;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.opendaylight.messagequeue.IPublishFailureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the publisher confirms of one channel that is in confirm mode. At most a fixed number of messages may be
+ * unconfirmed at a time; the sender is blocked while the window is full. Confirms are processed asynchronously on the
+ * connection thread, and nacked, timed out or lost messages are reported to the {@link IPublishFailureListener} of the
+ * queue. Messages that were sent asynchronously also complete their own future with the outcome.
+ */
+class PublisherConfirmTracker implements ConfirmListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PublisherConfirmTracker.class);
+
+    private final String queueName;
+    private final Semaphore window;
+    private final ConcurrentNavigableMap<Long, Unconfirmed> unconfirmed = new ConcurrentSkipListMap<>();
+    private volatile IPublishFailureListener failureListener;
+
+    PublisherConfirmTracker(String queueName, int maxUnconfirmedMessages) {
+        this.queueName = queueName;
+        this.window = new Semaphore(maxUnconfirmedMessages);
+    }
+
+    void setFailureListener(IPublishFailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Takes a place in the window for a message that is about to be published, before its sequence number is known,
+     * so the sender can wait for it without holding the lock it publishes under. The place is then handed to the
+     * message with {@link #track(long, CompletableFuture)}.
+     *
+     * @return false if the window stayed full for the whole timeout, in which case the message must not be published.
+     */
+    boolean acquire(long timeoutMillis) throws InterruptedException {
+        if (!window.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            notifyFailure(1, "window of unconfirmed messages stayed full for " + timeoutMillis + " ms");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a place in the window only if one is free right away.
+     */
+    boolean tryAcquire() {
+        return window.tryAcquire();
+    }
+
+    /**
+     * Hands a place taken with {@link #acquire(long)} or {@link #tryAcquire()} to the message that was published
+     * with the given sequence number.
+     *
+     * @param confirmed Completed when the message is confirmed or failed, may be null.
+     */
+    void track(long publishSeqNo, CompletableFuture<Void> confirmed) {
+        unconfirmed.put(publishSeqNo, new Unconfirmed(confirmed));
+    }
+
+    /**
+     * Gives back the place of a message whose publish failed locally, so no confirm will ever arrive for it.
+     */
+    void cancel(long publishSeqNo) {
+        // whoever cancels reports the failure to the sender
+        if (unconfirmed.remove(publishSeqNo) != null) {
+            window.release();
+        }
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, null);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        String reason = "nacked by the broker";
+        int nacked = confirm(deliveryTag, multiple, reason);
+        if (nacked > 0) {
+            notifyFailure(nacked, reason);
+        }
+    }
+
+    /**
+     * Fails every message which waits for its confirm for longer than the given timeout.
+     */
+    void expire(long timeoutMillis) {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        String reason = "not confirmed within " + timeoutMillis + " ms";
+        int expired = 0;
+        for (Iterator<Map.Entry<Long, Unconfirmed>> iter = unconfirmed.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<Long, Unconfirmed> entry = iter.next();
+            if (entry.getValue().publishNanos - deadline > 0) {
+                // sequence numbers grow with time, so the remaining entries are younger
+                break;
+            }
+            Unconfirmed removed = unconfirmed.remove(entry.getKey());
+            if (removed != null) {
+                removed.complete(reason);
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            window.release(expired);
+            notifyFailure(expired, reason);
+        }
+    }
+
+    /**
+     * Fails all the messages which are still unconfirmed. Called when the channel shuts down, since confirms of a
+     * closed channel never arrive, and a recovered channel starts counting from scratch.
+     */
+    void failAll(String reason) {
+        int failed = 0;
+        for (Long publishSeqNo : unconfirmed.keySet()) {
+            Unconfirmed removed = unconfirmed.remove(publishSeqNo);
+            if (removed != null) {
+                removed.complete(reason);
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            window.release(failed);
+            notifyFailure(failed, reason);
+        }
+    }
+
+    /*
+     * failure is null for acks.
+     */
+    private int confirm(long deliveryTag, boolean multiple, String failure) {
+        if (!multiple) {
+            Unconfirmed removed = unconfirmed.remove(deliveryTag);
+            if (removed == null) {
+                return 0;
+            }
+            removed.complete(failure);
+            window.release();
+            return 1;
+        }
+        int confirmed = 0;
+        for (Long publishSeqNo : unconfirmed.headMap(deliveryTag, true).keySet()) {
+            Unconfirmed removed = unconfirmed.remove(publishSeqNo);
+            if (removed != null) {
+                removed.complete(failure);
+                confirmed++;
+            }
+        }
+        window.release(confirmed);
+        return confirmed;
+    }
+
+    /**
+     * Reports a message that was lost before it could be published, so no place in the window was taken for it.
+     */
+    void notifyNotPublished(String reason) {
+        notifyListener(1, reason);
+    }
+
+    private void notifyFailure(int failedMessages, String reason) {
+        RabbitCounters.msg_not_confirmed.inc();
+        LOG.warn("{} messages to queue {} failed: {}", failedMessages, queueName, reason);
+        notifyListener(failedMessages, reason);
+    }
+
+    @SuppressWarnings(value = { "checkstyle:illegalcatch" })
+    private void notifyListener(int failedMessages, String reason) {
+        IPublishFailureListener listener = failureListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.publishFailed(queueName, failedMessages, reason);
+        } catch (RuntimeException e) {
+            LOG.error("Publish failure listener of queue {} failed", queueName, e);
+        }
+    }
+
+    private static final class Unconfirmed {
+        private final long publishNanos = System.nanoTime();
+        private final CompletableFuture<Void> confirmed;
+
+        Unconfirmed(CompletableFuture<Void> confirmed) {
+            this.confirmed = confirmed;
+        }
+
+        void complete(String failure) {
+            if (confirmed == null) {
+                return;
+            }
+            if (failure == null) {
+                confirmed.complete(null);
+            } else {
+                confirmed.completeExceptionally(new IOException(failure));
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a small number of connections per broker (host, port, user and password) and multiplexes the channels of
+ * many queues over them. A new connection is opened only when all the existing connections to the same broker
+ * already carry the configured maximal number of channels, and a connection is closed when its last channel is
+ * released.
+ */
+public class RabbitConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RabbitConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CHANNELS_PER_CONNECTION = 64;
+
+    private final Map<BrokerKey, List<PooledConnection>> brokerToConnections = new HashMap<>();
+    private boolean closed = false;
+    private volatile int maxChannelsPerConnection = DEFAULT_MAX_CHANNELS_PER_CONNECTION;
+    // null lets every connection create its own consumer dispatch pool
+    private volatile ExecutorService consumerExecutor;
+
+    public void setMaxChannelsPerConnection(int maxChannelsPerConnection) {
+        if (maxChannelsPerConnection < 1) {
+            throw new IllegalArgumentException("maxChannelsPerConnection must be positive: "
+                + maxChannelsPerConnection);
+        }
+        this.maxChannelsPerConnection = maxChannelsPerConnection;
+    }
+
+    public int getMaxChannelsPerConnection() {
+        return maxChannelsPerConnection;
+    }
+
+    /**
+     * Sets the executor that runs the consumer callbacks of the connections opened from now on, instead of a pool
+     * per connection. The client still runs the callbacks of one channel one at a time and in order. The pool
+     * doesn't shut the executor down.
+     */
+    public void setConsumerExecutor(ExecutorService consumerExecutor) {
+        this.consumerExecutor = consumerExecutor;
+    }
+
+    /**
+     * Opens a new channel to the given broker, reusing an existing connection if one has free channel slots.
+     * Connections and channels are opened without holding the lock of the pool, so a slow or unreachable broker
+     * doesn't hold up the queues of other brokers. Threads that find no free slot at the same time may each open a
+     * connection.
+     */
+    public PooledChannel acquireChannel(String host, int port, String user, String password)
+        throws IOException, TimeoutException {
+        BrokerKey key = new BrokerKey(host, port, user, password);
+        PooledConnection pooledConnection = reserveChannel(key);
+        if (pooledConnection == null) {
+            Connection connection = openConnection(host, port, user, password, consumerExecutor);
+            pooledConnection = addConnection(key, connection);
+        }
+
+        Channel channel;
+        try {
+            channel = pooledConnection.connection.createChannel();
+        } catch (IOException e) {
+            releaseSlot(pooledConnection);
+            throw e;
+        }
+        if (channel == null) {
+            releaseSlot(pooledConnection);
+            throw new IOException("No free channel numbers on connection to broker " + key);
+        }
+        return new PooledChannel(pooledConnection, channel);
+    }
+
+    /**
+     * Takes a channel slot of an open connection to the broker, and evicts the connections that were closed.
+     *
+     * @return The connection, or null if there is none with a free slot.
+     */
+    private synchronized PooledConnection reserveChannel(BrokerKey key) throws IOException {
+        if (closed) {
+            throw new IOException("The connection pool is closed");
+        }
+        List<PooledConnection> connections = brokerToConnections.get(key);
+        if (connections == null) {
+            return null;
+        }
+
+        PooledConnection pooledConnection = null;
+        for (Iterator<PooledConnection> iter = connections.iterator(); iter.hasNext();) {
+            PooledConnection candidate = iter.next();
+            if (!candidate.connection.isOpen()) {
+                // closed by the broker or recovering; it is closed for good when its last channel is released
+                LOG.info("Evicted closed connection to broker {}", key);
+                iter.remove();
+            } else if (pooledConnection == null && candidate.openChannels < maxChannelsPerConnection) {
+                pooledConnection = candidate;
+            }
+        }
+        if (connections.isEmpty()) {
+            brokerToConnections.remove(key);
+        }
+        if (pooledConnection != null) {
+            pooledConnection.openChannels++;
+        }
+        return pooledConnection;
+    }
+
+    private PooledConnection addConnection(BrokerKey key, Connection connection) throws IOException {
+        PooledConnection pooledConnection = new PooledConnection(key, connection);
+        pooledConnection.openChannels = 1;
+        int openConnections;
+        synchronized (this) {
+            if (!closed) {
+                List<PooledConnection> connections = brokerToConnections.get(key);
+                if (connections == null) {
+                    connections = new ArrayList<>();
+                    brokerToConnections.put(key, connections);
+                }
+                connections.add(pooledConnection);
+                openConnections = connections.size();
+            } else {
+                openConnections = 0;
+            }
+        }
+        if (openConnections == 0) {
+            closeConnection(pooledConnection);
+            throw new IOException("The connection pool is closed");
+        }
+        LOG.info("Created connection to broker {}, {} connections are now open to this broker", key,
+            openConnections);
+        return pooledConnection;
+    }
+
+    Connection openConnection(String host, int port, String user, String password, ExecutorService executor)
+        throws IOException, TimeoutException {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(host);
+        factory.setPort(port);
+        factory.setUsername(user);
+        factory.setPassword(password);
+        factory.setAutomaticRecoveryEnabled(true);
+        return executor == null ? factory.newConnection() : factory.newConnection(executor);
+    }
+
+    /**
+     * Closes the channel and closes its connection if no other channel is using it.
+     */
+    public void releaseChannel(PooledChannel pooledChannel) {
+        PooledConnection pooledConnection = pooledChannel.owner;
+        try {
+            if (pooledChannel.channel.isOpen()) {
+                pooledChannel.channel.close();
+            }
+        } catch (IOException | TimeoutException e) {
+            LOG.warn("Failed to close channel to broker {}", pooledConnection.key, e);
+        }
+        releaseSlot(pooledConnection);
+    }
+
+    private void releaseSlot(PooledConnection pooledConnection) {
+        synchronized (this) {
+            pooledConnection.openChannels--;
+            if (pooledConnection.openChannels > 0) {
+                return;
+            }
+
+            List<PooledConnection> connections = brokerToConnections.get(pooledConnection.key);
+            if (connections != null) {
+                connections.remove(pooledConnection);
+                if (connections.isEmpty()) {
+                    brokerToConnections.remove(pooledConnection.key);
+                }
+            }
+        }
+        closeConnection(pooledConnection);
+    }
+
+    public void close() {
+        List<PooledConnection> toClose = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (List<PooledConnection> connections : brokerToConnections.values()) {
+                toClose.addAll(connections);
+            }
+            brokerToConnections.clear();
+        }
+        for (PooledConnection pooledConnection : toClose) {
+            closeConnection(pooledConnection);
+        }
+    }
+
+    private void closeConnection(PooledConnection pooledConnection) {
+        try {
+            if (pooledConnection.connection.isOpen()) {
+                pooledConnection.connection.close();
+            } else {
+                // stops the recovery of a connection the broker closed
+                pooledConnection.connection.abort();
+            }
+            LOG.info("Closed connection to broker {}", pooledConnection.key);
+        } catch (IOException e) {
+            LOG.warn("Failed to close connection to broker {}", pooledConnection.key, e);
+        }
+    }
+
+    /**
+     * A channel handed out by the pool. It must be given back by {@link RabbitConnectionPool#releaseChannel}.
+     */
+    public static final class PooledChannel {
+        private final PooledConnection owner;
+        private final Channel channel;
+
+        PooledChannel(PooledConnection owner, Channel channel) {
+            this.owner = owner;
+            this.channel = channel;
+        }
+
+        public Channel getChannel() {
+            return channel;
+        }
+
+        public Connection getConnection() {
+            return owner.connection;
+        }
+
+        /**
+         * Whether the broker blocks the connection of this channel now. The client only tells the blocked listeners
+         * about changes, and a channel on a shared connection may be opened while the connection is blocked.
+         */
+        public boolean isConnectionBlocked() {
+            return owner.blocked;
+        }
+    }
+
+    private static final class PooledConnection implements BlockedListener {
+        private final BrokerKey key;
+        private final Connection connection;
+        private int openChannels = 0;
+        // listeners added later run after this one, so they never see an older state than this
+        private volatile boolean blocked = false;
+
+        PooledConnection(BrokerKey key, Connection connection) {
+            this.key = key;
+            this.connection = connection;
+            connection.addBlockedListener(this);
+        }
+
+        @Override
+        public void handleBlocked(String reason) {
+            blocked = true;
+        }
+
+        @Override
+        public void handleUnblocked() {
+            blocked = false;
+        }
+    }
+
+    private static final class BrokerKey {
+        private final String host;
+        private final int port;
+        private final String user;
+        // a connection is shared only by queues that give the same password, a wrong one must not be accepted
+        private final String password;
+
+        BrokerKey(String host, int port, String user, String password) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.password = password;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, user, password);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof BrokerKey)) {
+                return false;
+            }
+            BrokerKey other = (BrokerKey) obj;
+            return port == other.port && Objects.equals(host, other.host) && Objects.equals(user, other.user)
+                && Objects.equals(password, other.password);
+        }
+
+        @Override
+        public String toString() {
+            // never the password
+            return host + ":" + port + " (" + user + ")";
+        }
+    }
+}
@@ -12,7 +12,16 @@ import org.opendaylight.infrautils.counters.api.OccurenceCounter;
 public enum RabbitCounters {
 
     sent_msg,
-    received_msg;
+    msg_not_encoded,
+    received_msg,
+    queue_redeclared,
+    msg_not_confirmed,
+    compressed_msg,
+    ack_sent,
+    journaled_msg,
+    journal_replayed_msg,
+    journal_dropped_msg,
+    connection_blocked;
 
     private final OccurenceCounter counter;
 
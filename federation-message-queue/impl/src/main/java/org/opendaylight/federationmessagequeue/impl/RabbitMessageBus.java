@@ -11,27 +11,47 @@ import akka.osgi.BundleDelegatingClassLoader;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BlockedListener;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.opendaylight.federationmessagequeue.impl.RabbitConnectionPool.PooledChannel;
 import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.FederationKryoFactory;
+import org.opendaylight.messagequeue.IBackpressureListener;
 import org.opendaylight.messagequeue.IGeneralFederationConsumer;
 import org.opendaylight.messagequeue.IMessageBusClient;
+import org.opendaylight.messagequeue.IPublishFailureListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.FrameworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +60,56 @@ import org.slf4j.LoggerFactory;
 public class RabbitMessageBus implements IMessageBusClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(RabbitMessageBus.class);
+    private static final int BROKER_OPERATION_THREADS = 4;
+    // how long the synchronous variants wait for their operation, including the operations queued before it
+    private static final long SYNC_OPERATION_TIMEOUT_SECONDS = 120;
+    // per consumer, decoded messages that wait for an earlier message which is still being decoded
+    private static final int MAX_PENDING_DECODES = 256;
+    // consumer callbacks run on a pool per connection
+    static final String DISPATCH_MODE_CONNECTION = "connection";
+    // consumer callbacks of all connections run on one pool of dispatch-threads threads
+    static final String DISPATCH_MODE_SHARED = "shared";
+    // consumer callbacks run on virtual threads, on JVMs that have them
+    static final String DISPATCH_MODE_VIRTUAL = "virtual";
+    private static final AMQP.BasicProperties COMPRESSED_PROPERTIES =
+        new AMQP.BasicProperties.Builder().contentEncoding(PayloadCompression.CONTENT_ENCODING).build();
     private final Map<String, MessageBusConnectionData> queueNameToConnectionData = new ConcurrentHashMap<>();
+    private final RabbitConnectionPool connectionPool = new RabbitConnectionPool();
+    private volatile KryoPool kryoPool;
+    private final AtomicLong bundleGeneration = new AtomicLong();
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    // broker round trips of the asynchronous operations, ordered per queue by queueNameToLastOperation
+    private final ExecutorService brokerExecutor = Executors.newFixedThreadPool(BROKER_OPERATION_THREADS);
+    // asynchronous publishes, which may wait for the confirm window or for a blocked connection; they are ordered per
+    // queue too, so there is at most one thread per queue
+    private final ExecutorService publishExecutor = Executors.newCachedThreadPool();
+    private final Map<String, CompletableFuture<?>> queueNameToLastOperation = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    // null when messages are decoded on the dispatch thread of their consumer
+    private volatile ExecutorService decodeExecutor;
+    private volatile int decodeThreads = 0;
+    private volatile String dispatchMode = DISPATCH_MODE_CONNECTION;
+    private volatile int dispatchThreads = 16;
+    // null when every connection dispatches on its own pool
+    private volatile ExecutorService dispatchExecutor;
+    private final Set<FederationRabbitConsumer> manualAckConsumers = ConcurrentHashMap.newKeySet();
+    private volatile boolean publisherConfirms = false;
+    private volatile int maxUnconfirmedMessages = 1000;
+    private volatile long confirmTimeoutMillis = 30000;
+    private volatile int compressionThresholdBytes = 1024;
+    private volatile int prefetchCount = 0;
+    private volatile int ackBatchSize = 100;
+    private volatile long ackFlushIntervalMillis = 200;
+    // empty disables journaling
+    private volatile String journalDirectory = "";
+    private volatile int journalSegmentBytes = 16 * 1024 * 1024;
+    private volatile long journalMaxBytes = 256L * 1024 * 1024;
+    private volatile long journalDrainIntervalMillis = 1000;
+    private final BundleListener bundleRefreshListener = event -> {
+        if (event.getType() == BundleEvent.UNRESOLVED) {
+            invalidateClassCaches();
+        }
+    };
 
     public RabbitMessageBus() {
     }
@@ -50,28 +119,47 @@ public class RabbitMessageBus implements IMessageBusClient {
         return createQueue(queueName, brokerIp, 5672, "guest", "guest");
     }
 
-    /*
-     * TODO If we already have a connection to the broker, reuse the existing connection instead of creating a new one
-     */
     @Override
     public boolean createQueue(String queueName, String mqBrokerIp, int mqPortNumber, String mqUser, String mqUserPwd) {
-        LOG.info("Creating connection for queue {} on broker {}", queueName, mqBrokerIp);
+        Boolean created = await(createQueueAsync(queueName, mqBrokerIp, mqPortNumber, mqUser, mqUserPwd), queueName);
+        return Boolean.TRUE.equals(created);
+    }
+
+    @Override
+    public CompletionStage<Boolean> createQueueAsync(String queueName, String mqBrokerIp, int mqPortNumber,
+        String mqUser, String mqUserPwd) {
+        return submit(queueName, () -> declareQueue(queueName, mqBrokerIp, mqPortNumber, mqUser, mqUserPwd));
+    }
 
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(mqBrokerIp);
-        factory.setPort(mqPortNumber);
-        factory.setUsername(mqUser);
-        factory.setPassword(mqUserPwd);
-        factory.setAutomaticRecoveryEnabled(true);
+    private boolean declareQueue(String queueName, String mqBrokerIp, int mqPortNumber, String mqUser,
+        String mqUserPwd) {
+        LOG.info("Creating channel for queue {} on broker {}", queueName, mqBrokerIp);
 
         try {
-            Connection connection = factory.newConnection();
-            LOG.info("Created connection to broker {}:{} for user {} ", mqBrokerIp, mqPortNumber, mqUser);
-            Channel channel = connection.createChannel();
-            channel.queueDeclare(queueName, false, false, false, null);
+            PooledChannel pooledChannel = connectionPool.acquireChannel(mqBrokerIp, mqPortNumber, mqUser, mqUserPwd);
+            Channel channel = pooledChannel.getChannel();
+            PublisherConfirmTracker confirmTracker = null;
+            try {
+                channel.queueDeclare(queueName, false, false, false, null);
+                if (publisherConfirms) {
+                    channel.confirmSelect();
+                    confirmTracker = new PublisherConfirmTracker(queueName, maxUnconfirmedMessages);
+                    channel.addConfirmListener(confirmTracker);
+                }
+            } catch (IOException e) {
+                connectionPool.releaseChannel(pooledChannel);
+                throw e;
+            }
             LOG.info("Declared queue {} on broker {}", queueName, mqBrokerIp);
-            MessageBusConnectionData mbcd = new MessageBusConnectionData(mqBrokerIp, connection, channel);
-            queueNameToConnectionData.put(queueName, mbcd);
+            MessageBusConnectionData mbcd = new MessageBusConnectionData(queueName, mqBrokerIp, pooledChannel,
+                confirmTracker);
+            MessageBusConnectionData current = queueNameToConnectionData.get(queueName);
+            // messages which are still journaled are sent on the new channel
+            mbcd.journal = current != null && current.journal != null ? current.journal : createJournal(queueName);
+            MessageBusConnectionData previous = queueNameToConnectionData.put(queueName, mbcd);
+            if (previous != null) {
+                releaseChannel(previous);
+            }
             return true;
         } catch (IOException | TimeoutException e) {
             LOG.warn("Failed creating queue {} on broker {}:{} for user {} because: {}", queueName, mqBrokerIp,
@@ -80,16 +168,264 @@ public class RabbitMessageBus implements IMessageBusClient {
         }
     }
 
+    public void setMaxChannelsPerConnection(int maxChannelsPerConnection) {
+        connectionPool.setMaxChannelsPerConnection(maxChannelsPerConnection);
+    }
+
+    public void setPublisherConfirms(boolean publisherConfirms) {
+        this.publisherConfirms = publisherConfirms;
+    }
+
+    public void setMaxUnconfirmedMessages(int maxUnconfirmedMessages) {
+        this.maxUnconfirmedMessages = maxUnconfirmedMessages;
+    }
+
+    public void setConfirmTimeoutMillis(long confirmTimeoutMillis) {
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+    }
+
     public void init() {
         LOG.info("starting {}", getClass().getSimpleName());
+        BundleContext bundleContext = getBundleContext();
+        if (bundleContext != null) {
+            bundleContext.addBundleListener(bundleRefreshListener);
+        }
+        if (publisherConfirms) {
+            LOG.info("Publisher confirms are enabled with up to {} unconfirmed messages per queue",
+                maxUnconfirmedMessages);
+            long checkInterval = Math.max(1, confirmTimeoutMillis / 10);
+            scheduler.scheduleWithFixedDelay(this::expireUnconfirmedMessages, checkInterval,
+                checkInterval, TimeUnit.MILLISECONDS);
+        }
+        if (journalDirectory != null && !journalDirectory.isEmpty()) {
+            LOG.info("Messages that can't be sent are journaled in {}, up to {} bytes per queue", journalDirectory,
+                journalMaxBytes);
+            scheduler.scheduleWithFixedDelay(this::drainJournals, journalDrainIntervalMillis,
+                journalDrainIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        dispatchExecutor = createDispatchExecutor();
+        connectionPool.setConsumerExecutor(dispatchExecutor);
+        if (decodeThreads > 0) {
+            LOG.info("Messages are decoded by {} threads", decodeThreads);
+            decodeExecutor = Executors.newFixedThreadPool(decodeThreads);
+        }
+        if (prefetchCount > 0) {
+            LOG.info("Consumers ack manually with a prefetch of {} and acks batched by {}", prefetchCount,
+                ackBatchSize);
+            // the tail of a burst is acked after a short while even if no further messages arrive
+            scheduler.scheduleWithFixedDelay(this::flushAcks, ackFlushIntervalMillis, ackFlushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushAcks() {
+        for (FederationRabbitConsumer consumer : manualAckConsumers) {
+            consumer.flushAcks();
+        }
     }
 
     public void close() {
         LOG.info("closing {}", getClass().getSimpleName());
+        BundleContext bundleContext = getBundleContext();
+        if (bundleContext != null) {
+            try {
+                bundleContext.removeBundleListener(bundleRefreshListener);
+            } catch (IllegalStateException e) {
+                LOG.debug("Bundle context is no longer valid", e);
+            }
+        }
+        closed = true;
+        scheduler.shutdownNow();
+        ExecutorService executor = decodeExecutor;
+        if (executor != null) {
+            for (Runnable task : executor.shutdownNow()) {
+                if (task instanceof DecodePipeline.DecodeTask) {
+                    ((DecodePipeline.DecodeTask) task).abandon();
+                }
+            }
+        }
+        brokerExecutor.shutdown();
+        publishExecutor.shutdown();
+        try {
+            // let queue operations that are already underway finish before their connections are closed
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            if (!brokerExecutor.awaitTermination(5, TimeUnit.SECONDS)
+                || !publishExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                abortBrokerOperations();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortBrokerOperations();
+        }
+        for (MessageBusConnectionData messageBusConnectionData : queueNameToConnectionData.values()) {
+            closeJournal(messageBusConnectionData);
+        }
+        queueNameToConnectionData.clear();
+        connectionPool.close();
+        ExecutorService dispatcher = dispatchExecutor;
+        if (dispatcher != null) {
+            // after the connections, which still dispatch their shutdown signals while closing
+            dispatcher.shutdownNow();
+        }
+    }
+
+    /*
+     * The client runs the callbacks of one channel serially and in order on whatever executor it is given, and each
+     * queue is consumed on its own channel, so sharing an executor keeps the per queue ordering.
+     */
+    private ExecutorService createDispatchExecutor() {
+        if (DISPATCH_MODE_VIRTUAL.equals(dispatchMode)) {
+            try {
+                // looked up reflectively, the bundle is built for java 8
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                LOG.info("Consumers are dispatched on virtual threads");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOG.warn("Virtual threads are not supported by this JVM, consumers are dispatched on {} shared threads",
+                    dispatchThreads);
+                return Executors.newFixedThreadPool(dispatchThreads);
+            }
+        }
+        if (DISPATCH_MODE_SHARED.equals(dispatchMode)) {
+            LOG.info("Consumers are dispatched on {} shared threads", dispatchThreads);
+            return Executors.newFixedThreadPool(dispatchThreads);
+        }
+        if (!DISPATCH_MODE_CONNECTION.equals(dispatchMode)) {
+            LOG.warn("Unknown dispatch mode {}, consumers are dispatched on a pool per connection", dispatchMode);
+        }
+        return null;
+    }
+
+    private void expireUnconfirmedMessages() {
+        for (MessageBusConnectionData messageBusConnectionData : queueNameToConnectionData.values()) {
+            if (messageBusConnectionData.confirmTracker != null) {
+                messageBusConnectionData.confirmTracker.expire(confirmTimeoutMillis);
+            }
+        }
+    }
+
+    @Override
+    public void setPayloadCompression(String queueName, boolean compress) {
+        MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
+        if (messageBusConnectionData != null) {
+            LOG.info("Payload compression of queue {} is {}", queueName, compress ? "enabled" : "disabled");
+            messageBusConnectionData.compressPayload = compress;
+        } else {
+            LOG.warn("setPayloadCompression - unknown queue name {}", queueName);
+        }
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    public void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+    }
+
+    public void setAckFlushIntervalMillis(long ackFlushIntervalMillis) {
+        this.ackFlushIntervalMillis = ackFlushIntervalMillis;
+    }
+
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public void setDispatchMode(String dispatchMode) {
+        this.dispatchMode = dispatchMode;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public void setJournalSegmentBytes(int journalSegmentBytes) {
+        this.journalSegmentBytes = journalSegmentBytes;
+    }
+
+    public void setJournalMaxBytes(long journalMaxBytes) {
+        this.journalMaxBytes = journalMaxBytes;
+    }
+
+    public void setJournalDrainIntervalMillis(long journalDrainIntervalMillis) {
+        this.journalDrainIntervalMillis = journalDrainIntervalMillis;
+    }
+
+    public void setCompressionThresholdBytes(int compressionThresholdBytes) {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    @Override
+    public void setBackpressureListener(String queueName, IBackpressureListener listener) {
+        MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
+        if (messageBusConnectionData != null) {
+            messageBusConnectionData.backpressureListener = listener;
+        } else {
+            LOG.warn("setBackpressureListener - unknown queue name {}", queueName);
+        }
+    }
+
+    /*
+     * A queue is backpressured while its connection is blocked, and while messages wait in its journal.
+     */
+    @Override
+    public boolean isBackpressured(String queueName) {
+        MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
+        if (messageBusConnectionData == null) {
+            return false;
+        }
+        if (messageBusConnectionData.blocked) {
+            return true;
+        }
+        synchronized (messageBusConnectionData) {
+            return messageBusConnectionData.journal != null && !messageBusConnectionData.journal.isEmpty();
+        }
+    }
+
+    @Override
+    public void setPublishFailureListener(String queueName, IPublishFailureListener listener) {
+        MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
+        if (messageBusConnectionData == null) {
+            LOG.warn("setPublishFailureListener - unknown queue name {}", queueName);
+        } else if (messageBusConnectionData.confirmTracker != null) {
+            messageBusConnectionData.confirmTracker.setFailureListener(listener);
+        }
+    }
+
+    private void releaseChannel(MessageBusConnectionData messageBusConnectionData) {
+        messageBusConnectionData.backpressureListener = null;
+        messageBusConnectionData.pooledChannel.getConnection()
+            .removeBlockedListener(messageBusConnectionData.blockedListener);
+        // closing the channel shuts its consumers down without cancelling them, nothing is left for them to ack
+        manualAckConsumers.removeAll(messageBusConnectionData.manualAckConsumers);
+        messageBusConnectionData.manualAckConsumers.clear();
+        if (messageBusConnectionData.confirmTracker != null) {
+            // messages that are lost because the queue is gone are expected, nobody needs to hear about them
+            messageBusConnectionData.confirmTracker.setFailureListener(null);
+        }
+        synchronized (messageBusConnectionData) {
+            connectionPool.releaseChannel(messageBusConnectionData.pooledChannel);
+        }
     }
 
     @Override
     public void destroyQueue(String queueName) {
+        await(destroyQueueAsync(queueName), queueName);
+    }
+
+    @Override
+    public CompletionStage<Void> destroyQueueAsync(String queueName) {
+        return submit(queueName, () -> {
+            deleteQueue(queueName);
+            return null;
+        });
+    }
+
+    private void deleteQueue(String queueName) {
         LOG.info("Started delete of queue {}", queueName);
 
         // lookup connection by queueName
@@ -97,31 +433,18 @@ public class RabbitMessageBus implements IMessageBusClient {
         if (messageBusConnectionData != null) {
             // get channel from active connections map
             Channel channel = messageBusConnectionData.channel;
-            String brokerIp = messageBusConnectionData.brokerIp;
-            Connection conn = messageBusConnectionData.conn;
+            // kill the queue dont wait for confirmation
             try {
-                // kill the queue dont wait for confirmation
-                if (channel != null) {
-                    try {
-                        channel.queueDelete(queueName);
-                        LOG.info("Deleted queue {} successfully", queueName);
-                    } catch (IOException e) {
-                        LOG.warn("Failed to delete queue {} msg: {}", queueName, e.getMessage());
-                    }
-                    channel.close();
-                } else {
-                    LOG.warn("Null channel while deleting queue {} on broker {}", queueName, brokerIp);
-                }
-                if (conn != null) {
-                    conn.close();
-                } else {
-                    LOG.warn("Null connection while deleting queue {} on broker {}", queueName, brokerIp);
-                }
-            } catch (IOException | TimeoutException e) {
-                LOG.warn("Failed to close channel while deleting queue {} on broker {}", queueName, brokerIp, e);
+                channel.queueDelete(queueName);
+                LOG.info("Deleted queue {} successfully", queueName);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete queue {} msg: {}", queueName, e.getMessage());
             }
+            // the connection is shared with other queues, so only the channel is given back
+            releaseChannel(messageBusConnectionData);
             // remove the queue from the internal queue list
             queueNameToConnectionData.remove(queueName);
+            closeJournal(messageBusConnectionData);
         } else {
             LOG.warn("Cancelled deletion of queue {} because queueName not found in queueNameToConnectionData",
                 queueName);
@@ -129,18 +452,31 @@ public class RabbitMessageBus implements IMessageBusClient {
 
     }
 
-    @SuppressWarnings(value = { "checkstyle:illegalcatch" })
     @Override
     public String attachHandler(String queueName, IGeneralFederationConsumer consumer) {
+        return await(attachHandlerAsync(queueName, consumer), queueName);
+    }
+
+    @Override
+    public CompletionStage<String> attachHandlerAsync(String queueName, IGeneralFederationConsumer consumer) {
+        return submit(queueName, () -> consume(queueName, consumer));
+    }
+
+    private String consume(String queueName, IGeneralFederationConsumer consumer) {
         MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
         if (messageBusConnectionData != null) {
 
             Channel channel = messageBusConnectionData.channel;
-            Consumer mqConsumer = createRabbitConsumer(consumer, channel);
 
             try {
+                boolean autoAck = prefetchCount <= 0;
+                if (!autoAck) {
+                    // bounds the unacked deliveries the broker pushes to this consumer
+                    channel.basicQos(prefetchCount);
+                }
+                Consumer mqConsumer = createRabbitConsumer(consumer, messageBusConnectionData);
                 // start consuming from queue
-                return channel.basicConsume(queueName, true, mqConsumer);
+                return channel.basicConsume(queueName, autoAck, mqConsumer);
             } catch (IOException e) {
                 String brokerIp = messageBusConnectionData.brokerIp;
                 LOG.warn("Failed to consume from queue {} on broker {}", queueName, brokerIp, e);
@@ -152,49 +488,231 @@ public class RabbitMessageBus implements IMessageBusClient {
         return null;
     }
 
-    private Consumer createRabbitConsumer(IGeneralFederationConsumer consumer, Channel channel) {
-        Consumer mqConsumer = new DefaultConsumer(channel) {
+    private Consumer createRabbitConsumer(IGeneralFederationConsumer consumer,
+        MessageBusConnectionData messageBusConnectionData) {
+        FederationRabbitConsumer mqConsumer = new FederationRabbitConsumer(messageBusConnectionData.channel, consumer,
+            prefetchCount, messageBusConnectionData.manualAckConsumers);
+        if (mqConsumer.manualAck) {
+            messageBusConnectionData.manualAckConsumers.add(mqConsumer);
+            manualAckConsumers.add(mqConsumer);
+        }
+        return mqConsumer;
+    }
+
+    /**
+     * Decodes the deliveries of one queue and passes them to the {@link IGeneralFederationConsumer}. The class loader
+     * used for decoding is resolved once per consumer and rebuilt only after bundles were refreshed.
+     */
+    private class FederationRabbitConsumer extends DefaultConsumer {
 
-            /*
-             * The methods of this interface are invoked in a dispatch thread which is separate from the Connection's
-             * thread. The Consumers on a particular Channel are invoked serially on one or more dispatch threads.
-             */
-            @Override
-            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
-                byte[] body) throws IOException {
+        private final IGeneralFederationConsumer consumer;
+        // the manual ack consumers of the queue, which are forgotten with it
+        private final Set<FederationRabbitConsumer> queueConsumers;
+        private final boolean manualAck;
+        private final int acksPerBatch;
+        private ClassLoader classLoader;
+        private long classLoaderGeneration = -1;
+        // used when decoding runs on the decode executor
+        private final DecodePipeline decodePipeline;
+        // guarded by this, acks are flushed by the dispatch thread and by the periodic flush
+        private long lastDeliveryTag;
+        private int unackedDeliveries = 0;
 
-                Kryo kryo = new Kryo();
-                kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        FederationRabbitConsumer(Channel channel, IGeneralFederationConsumer consumer, int prefetchCount,
+            Set<FederationRabbitConsumer> queueConsumers) {
+            super(channel);
+            this.consumer = consumer;
+            this.queueConsumers = queueConsumers;
+            this.manualAck = prefetchCount > 0;
+            // acking only after a full prefetch window would stall the broker, so ack at least twice per window
+            this.acksPerBatch = Math.max(1, Math.min(ackBatchSize, prefetchCount / 2));
+            this.decodePipeline = new DecodePipeline(MAX_PENDING_DECODES, () -> closed, this::deliverDecoded);
+        }
 
-                Input input = new Input(new ByteArrayInputStream(body));
+        /*
+         * The methods of this interface are invoked in a dispatch thread which is separate from the Connection's
+         * thread. The Consumers on a particular Channel are invoked serially on one or more dispatch threads.
+         */
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties,
+            byte[] body) throws IOException {
+            ExecutorService executor = decodeExecutor;
+            if (executor == null) {
                 try {
-                    Bundle bundle = FrameworkUtil.getBundle(RabbitMessageBus.class);
-                    BundleContext bundleContext = bundle.getBundleContext();
-                    BundleDelegatingClassLoader loader = new BundleDelegatingClassLoader(bundleContext.getBundle(),
-                        Thread.currentThread().getContextClassLoader());
-
-                    kryo.setClassLoader(loader);
-                    Object readObject = kryo.readClassAndObject(input);
-                    if (readObject instanceof AbstractFederationMessage) {
-                        RabbitCounters.received_msg.inc();
-                        consumer.consumeMsg((AbstractFederationMessage) readObject);
-                    } else {
-                        LOG.error("Received an object not of type AbstractFederationMessage, type was: {}",
-                            readObject.getClass().getName());
+                    consume(decode(properties, body));
+                } finally {
+                    if (manualAck) {
+                        // messages that failed to decode are acked too, a redelivery would fail the same way
+                        acknowledge(envelope.getDeliveryTag());
                     }
-                    LOG.trace("Deserialized {}", readObject);
+                }
+                return;
+            }
+
+            // not acked if it is dropped, so the broker redelivers it unless the consumer acks automatically
+            decodePipeline.submit(envelope.getDeliveryTag(), () -> decodeAhead(decode(properties, body)), executor);
+        }
+
+        private AbstractFederationMessage decodeAhead(AbstractFederationMessage msg) {
+            if (msg != null) {
+                try {
+                    consumer.decodeAhead(msg);
                 } catch (Throwable e) {
-                    LOG.error("Failed in readObject: " + e.getMessage(), e);
-                    return;
+                    LOG.warn("Failed decoding ahead: " + e.getMessage(), e);
                 }
+            }
+            return msg;
+        }
 
+        private void deliverDecoded(AbstractFederationMessage msg, long deliveryTag) {
+            try {
+                consume(msg);
+            } finally {
+                if (manualAck) {
+                    acknowledge(deliveryTag);
+                }
             }
-        };
-        return mqConsumer;
+        }
+
+        /**
+         * Decodes a delivery.
+         *
+         * @return The message, or null if it couldn't be decoded.
+         */
+        private AbstractFederationMessage decode(AMQP.BasicProperties properties, byte[] body) {
+            if (PayloadCompression.CONTENT_ENCODING.equals(properties.getContentEncoding())) {
+                try {
+                    body = PayloadCompression.decompress(body);
+                } catch (IOException | RuntimeException e) {
+                    LOG.error("Failed to decompress message: " + e.getMessage(), e);
+                    return null;
+                }
+            }
+            Input input = new Input(body);
+            KryoPool pool = getKryoPool();
+            Kryo kryo = pool.borrow();
+            try {
+                kryo.setClassLoader(getClassLoader());
+                Object readObject = kryo.readClassAndObject(input);
+                LOG.trace("Deserialized {}", readObject);
+                if (readObject instanceof AbstractFederationMessage) {
+                    RabbitCounters.received_msg.inc();
+                    return (AbstractFederationMessage) readObject;
+                }
+                LOG.error("Received an object not of type AbstractFederationMessage, type was: {}",
+                    readObject.getClass().getName());
+            } catch (Throwable e) {
+                LOG.error("Failed in readObject: " + e.getMessage(), e);
+            } finally {
+                pool.release(kryo);
+            }
+            return null;
+        }
+
+        private void consume(AbstractFederationMessage msg) {
+            if (msg == null) {
+                return;
+            }
+            try {
+                consumer.consumeMsg(msg);
+            } catch (Throwable e) {
+                LOG.error("Failed consuming msg: " + e.getMessage(), e);
+            }
+        }
+
+        private synchronized void acknowledge(long deliveryTag) {
+            lastDeliveryTag = deliveryTag;
+            unackedDeliveries++;
+            if (unackedDeliveries >= acksPerBatch) {
+                flushAcks();
+            }
+        }
+
+        /**
+         * Acks everything that was processed up to now with a single multiple=true ack.
+         */
+        synchronized void flushAcks() {
+            if (unackedDeliveries == 0) {
+                return;
+            }
+            try {
+                getChannel().basicAck(lastDeliveryTag, true);
+                RabbitCounters.ack_sent.inc();
+            } catch (IOException | AlreadyClosedException e) {
+                LOG.warn("Failed to ack deliveries up to {}: {}", lastDeliveryTag, e.getMessage());
+            }
+            unackedDeliveries = 0;
+        }
+
+        @Override
+        public synchronized void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+            // delivery tags belong to the channel, the broker redelivers whatever wasn't acked; the consumer stays
+            // registered since automatic recovery consumes with it again on the recovered channel
+            unackedDeliveries = 0;
+        }
+
+        @Override
+        public void handleCancelOk(String consumerTag) {
+            flushAcks();
+            forget();
+        }
+
+        @Override
+        public void handleCancel(String consumerTag) {
+            flushAcks();
+            forget();
+        }
+
+        private void forget() {
+            queueConsumers.remove(this);
+            manualAckConsumers.remove(this);
+        }
+
+        // called from the dispatch thread of this consumer, or from the decode threads
+        private synchronized ClassLoader getClassLoader() {
+            long generation = bundleGeneration.get();
+            if (classLoader == null || classLoaderGeneration != generation) {
+                classLoader = new CachingClassLoader(createClassLoader());
+                classLoaderGeneration = generation;
+            }
+            return classLoader;
+        }
     }
 
+    /*
+     * Messages to different queues are encoded and published concurrently. Publishing on a queue's channel is guarded
+     * by that queue's MessageBusConnectionData, so messages that one thread sends to the same queue reach the broker in
+     * the order they were sent. Callers that send to a queue from several threads must order the calls themselves.
+     */
     @Override
-    public synchronized void sendMsg(AbstractFederationMessage msg, String queueName) {
+    public void sendMsg(AbstractFederationMessage msg, String queueName) {
+        publish(msg, queueName, null);
+    }
+
+    /*
+     * Asynchronous sends to a queue take their turn with the other asynchronous operations on it, and complete when
+     * the message is confirmed if publisher confirms are enabled. They run on their own executor, so a publish that
+     * waits for the confirm window or for a blocked connection never holds up the operations on other queues.
+     */
+    @Override
+    public CompletionStage<Void> sendMsgAsync(AbstractFederationMessage msg, String queueName) {
+        return submit(queueName, publishExecutor, () -> {
+            CompletableFuture<Void> confirmed = new CompletableFuture<>();
+            if (!publish(msg, queueName, confirmed)) {
+                confirmed.completeExceptionally(new IOException("Failed to send message to queue " + queueName));
+            }
+            return confirmed;
+        }).thenCompose(confirmed -> confirmed);
+    }
+
+    /**
+     * Encodes and publishes the message.
+     *
+     * @param confirmed Completed when the message is confirmed, or right after publishing if confirms are disabled.
+     *     May be null.
+     * @return false if the message was dropped.
+     */
+    private boolean publish(AbstractFederationMessage msg, String queueName, CompletableFuture<Void> confirmed) {
 
         // lookup connection by queueName
         MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
@@ -202,59 +720,444 @@ public class RabbitMessageBus implements IMessageBusClient {
             Channel channel = messageBusConnectionData.channel;
             LOG.trace("Sending msg to queue {}, msg {}", queueName, msg);
 
-            // make sure that the queue is there (nothing happens if the
-            // receiving side already created it
-            createQueueIfNeeded(queueName, messageBusConnectionData, channel);
-            byte[] byteArray = serializeUsingKryo(msg);
-
+            // the client needs an array of the exact size, so the encoded bytes are copied once, either by the
+            // compression or into the final array
+            byte[] byteArray = null;
+            AMQP.BasicProperties properties = null;
+            EncodeBuffer buffer = EncodeBuffer.get();
             try {
-                channel.basicPublish("", queueName, null, byteArray);
-                RabbitCounters.sent_msg.inc();
-                LOG.debug("Sent msg to {} on broker {}", queueName, messageBusConnectionData.brokerIp);
-            } catch (IOException e) {
-                LOG.error("Failed to send message to queue {} on broker {} because {}", queueName,
-                    messageBusConnectionData.brokerIp, e.getMessage());
+                Output output = buffer.begin();
+                try {
+                    serializeUsingKryo(msg, output);
+                } catch (RuntimeException e) {
+                    // only this message is lost, the queue and the messages after it are fine
+                    RabbitCounters.msg_not_encoded.inc();
+                    LOG.error("Failed to encode msg to queue {}, dropping it", queueName, e);
+                    if (messageBusConnectionData.confirmTracker != null) {
+                        messageBusConnectionData.confirmTracker.notifyNotPublished("encoding failed: " + e);
+                    }
+                    return false;
+                }
+                int length = output.position();
+                if (messageBusConnectionData.compressPayload && length >= compressionThresholdBytes) {
+                    byteArray = PayloadCompression.compress(output.getBuffer(), length);
+                    if (byteArray != null) {
+                        properties = COMPRESSED_PROPERTIES;
+                        RabbitCounters.compressed_msg.inc();
+                    }
+                }
+                if (byteArray == null) {
+                    byteArray = output.toBytes();
+                }
+            } finally {
+                buffer.release();
+            }
+
+            // with a journal a full window doesn't hold the message up, it waits in the journal instead; without one
+            // the window is waited for before the lock of the queue is taken, so its state can be queried meanwhile
+            PublisherConfirmTracker confirmTracker = messageBusConnectionData.confirmTracker;
+            boolean reserved = false;
+            if (confirmTracker != null && messageBusConnectionData.journal == null) {
+                try {
+                    if (!confirmTracker.acquire(confirmTimeoutMillis)) {
+                        LOG.trace("Dropped msg {}", msg);
+                        return false;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted while waiting for confirms of queue {}, dropping msg", queueName);
+                    return false;
+                }
+                reserved = true;
+            }
+
+            synchronized (messageBusConnectionData) {
+                OutboundJournal journal = messageBusConnectionData.journal;
+                if (journal != null && !journal.isEmpty() && !drainJournal(queueName, messageBusConnectionData)) {
+                    // older messages are still waiting for the broker, this one has to line up behind them
+                    return appendToJournal(queueName, messageBusConnectionData, byteArray, properties, confirmed);
+                }
+                if (journal != null && messageBusConnectionData.blocked) {
+                    // publishing would block this thread until the broker unblocks the connection
+                    return appendToJournal(queueName, messageBusConnectionData, byteArray, properties, confirmed);
+                }
+
+                // make sure that the queue is there (nothing happens if the
+                // receiving side already created it
+                createQueueIfNeeded(queueName, messageBusConnectionData, channel);
+
+                long publishSeqNo = 0;
+                if (confirmTracker != null) {
+                    if (!reserved && !confirmTracker.tryAcquire()) {
+                        // the broker is slow to confirm, the message waits in the journal until it catches up
+                        return appendToJournal(queueName, messageBusConnectionData, byteArray, properties, confirmed);
+                    }
+                    publishSeqNo = channel.getNextPublishSeqNo();
+                    confirmTracker.track(publishSeqNo, confirmed);
+                }
+
+                try {
+                    channel.basicPublish("", queueName, properties, byteArray);
+                    RabbitCounters.sent_msg.inc();
+                    LOG.debug("Sent msg to {} on broker {}", queueName, messageBusConnectionData.brokerIp);
+                    if (confirmTracker == null && confirmed != null) {
+                        confirmed.complete(null);
+                    }
+                    return true;
+                } catch (IOException | AlreadyClosedException e) {
+                    messageBusConnectionData.queueDeclared = false;
+                    if (confirmTracker != null) {
+                        confirmTracker.cancel(publishSeqNo);
+                    }
+                    if (journal != null) {
+                        LOG.warn("Failed to send message to queue {} on broker {} because {}, journaling it",
+                            queueName, messageBusConnectionData.brokerIp, e.getMessage());
+                        return appendToJournal(queueName, messageBusConnectionData, byteArray, properties, confirmed);
+                    }
+                    LOG.error("Failed to send message to queue {} on broker {} because {}", queueName,
+                        messageBusConnectionData.brokerIp, e.getMessage());
+                    return false;
+                }
             }
         } else {
             LOG.error("sendMsg - unknown queue name {}", queueName);
             LOG.trace("Dropped msg {}", msg);
+            return false;
+        }
+    }
+
+    private OutboundJournal createJournal(String queueName) {
+        String directory = journalDirectory;
+        if (directory == null || directory.isEmpty()) {
+            return null;
+        }
+        try {
+            return new OutboundJournal(Paths.get(directory), queueName, journalSegmentBytes, journalMaxBytes);
+        } catch (IOException e) {
+            LOG.error("Failed to create the journal of queue {} in {}, messages that can't be sent will be dropped",
+                queueName, directory, e);
+            return null;
+        }
+    }
+
+    private static void closeJournal(MessageBusConnectionData messageBusConnectionData) {
+        if (messageBusConnectionData.journal != null) {
+            synchronized (messageBusConnectionData) {
+                messageBusConnectionData.journal.close();
+            }
+        }
+    }
+
+    // called while holding the lock of messageBusConnectionData
+    private boolean appendToJournal(String queueName, MessageBusConnectionData messageBusConnectionData,
+        byte[] byteArray, AMQP.BasicProperties properties, CompletableFuture<Void> confirmed) {
+        try {
+            if (messageBusConnectionData.journal.append(byteArray, byteArray.length,
+                properties == COMPRESSED_PROPERTIES)) {
+                RabbitCounters.journaled_msg.inc();
+                if (confirmed != null) {
+                    confirmed.complete(null);
+                }
+                return true;
+            }
+            LOG.error("Journal of queue {} is full, dropping msg", queueName);
+        } catch (IOException e) {
+            LOG.error("Failed to journal msg to queue {}, dropping it", queueName, e);
+        }
+        RabbitCounters.journal_dropped_msg.inc();
+        return false;
+    }
+
+    /**
+     * Publishes the journaled messages of the queue in order, as long as the broker takes them.
+     *
+     * @return true if the journal is empty now. Called while holding the lock of messageBusConnectionData.
+     */
+    private boolean drainJournal(String queueName, MessageBusConnectionData messageBusConnectionData) {
+        OutboundJournal journal = messageBusConnectionData.journal;
+        Channel channel = messageBusConnectionData.channel;
+        if (!channel.isOpen() || messageBusConnectionData.blocked) {
+            // still waiting for recovery, or for the broker to take messages again
+            return false;
+        }
+        createQueueIfNeeded(queueName, messageBusConnectionData, channel);
+        PublisherConfirmTracker confirmTracker = messageBusConnectionData.confirmTracker;
+        try {
+            int drained = journal.drain((body, compressed) -> {
+                long publishSeqNo = 0;
+                if (confirmTracker != null) {
+                    if (!confirmTracker.tryAcquire()) {
+                        // the record stays in the journal until the broker confirms earlier messages
+                        throw new IOException("window of unconfirmed messages is full");
+                    }
+                    publishSeqNo = channel.getNextPublishSeqNo();
+                    confirmTracker.track(publishSeqNo, null);
+                }
+                try {
+                    channel.basicPublish("", queueName, compressed ? COMPRESSED_PROPERTIES : null, body);
+                    RabbitCounters.sent_msg.inc();
+                    RabbitCounters.journal_replayed_msg.inc();
+                } catch (IOException | AlreadyClosedException e) {
+                    messageBusConnectionData.queueDeclared = false;
+                    if (confirmTracker != null) {
+                        confirmTracker.cancel(publishSeqNo);
+                    }
+                    throw new IOException(e.getMessage(), e);
+                }
+            });
+            if (drained > 0) {
+                LOG.info("Sent {} journaled messages to queue {}, {} are left", drained, queueName, journal.size());
+            }
+        } catch (IOException e) {
+            LOG.debug("Stopped sending journaled messages to queue {}: {}", queueName, e.getMessage());
+        }
+        return journal.isEmpty();
+    }
+
+    private void drainJournals() {
+        for (Map.Entry<String, MessageBusConnectionData> entry : queueNameToConnectionData.entrySet()) {
+            MessageBusConnectionData messageBusConnectionData = entry.getValue();
+            if (messageBusConnectionData.journal == null) {
+                continue;
+            }
+            synchronized (messageBusConnectionData) {
+                if (!messageBusConnectionData.journal.isEmpty()) {
+                    drainJournal(entry.getKey(), messageBusConnectionData);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a blocking broker operation on the broker executor, after all the operations that were submitted for the
+     * same queue before it completed.
+     */
+    private <T> CompletableFuture<T> submit(String queueName, Callable<T> operation) {
+        return submit(queueName, brokerExecutor, operation);
+    }
+
+    private <T> CompletableFuture<T> submit(String queueName, ExecutorService executor, Callable<T> operation) {
+        BrokerOperation<T> task = new BrokerOperation<>(operation);
+        CompletableFuture<T> result = task.result;
+        if (closed) {
+            task.abort();
+            return result;
+        }
+        queueNameToLastOperation.compute(queueName, (name, previous) -> {
+            if (previous == null) {
+                execute(task, executor);
+            } else {
+                previous.whenComplete((ignored, error) -> execute(task, executor));
+            }
+            return result;
+        });
+        result.whenComplete((ignored, error) -> queueNameToLastOperation.remove(queueName, result));
+        return result;
+    }
+
+    private static void execute(BrokerOperation<?> task, ExecutorService executor) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the bus is closing
+            task.abort();
+        }
+    }
+
+    /*
+     * Fails the operations which didn't start yet, which fails the operations queued behind them in turn.
+     */
+    private void abortBrokerOperations() {
+        List<Runnable> notStarted = new ArrayList<>(brokerExecutor.shutdownNow());
+        notStarted.addAll(publishExecutor.shutdownNow());
+        for (Runnable task : notStarted) {
+            if (task instanceof BrokerOperation) {
+                ((BrokerOperation<?>) task).abort();
+            }
+        }
+    }
+
+    private static <T> T await(CompletionStage<T> stage, String queueName) {
+        try {
+            return stage.toCompletableFuture().get(SYNC_OPERATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for an operation on queue {}", queueName);
+        } catch (ExecutionException e) {
+            LOG.error("Operation on queue {} failed", queueName, e.getCause());
+        } catch (TimeoutException e) {
+            LOG.error("Operation on queue {} didn't complete within {} seconds", queueName,
+                SYNC_OPERATION_TIMEOUT_SECONDS);
+        }
+        return null;
+    }
+
+    private static final class BrokerOperation<T> implements Runnable {
+        private final Callable<T> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        BrokerOperation(Callable<T> operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(operation.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        void abort() {
+            result.completeExceptionally(new IllegalStateException("Message bus is closed"));
         }
     }
 
+    /*
+     * Declaring is a synchronous round trip to the broker, so it is only repeated after the queue was declared
+     * through createQueue if the channel was recovered or shut down, or a publish on it failed.
+     */
     private void createQueueIfNeeded(String queueName, MessageBusConnectionData messageBusConnectionData,
         Channel channel) {
+        if (messageBusConnectionData.queueDeclared) {
+            return;
+        }
         try {
             channel.queueDeclare(queueName, false, false, false, null);
+            messageBusConnectionData.queueDeclared = true;
+            RabbitCounters.queue_redeclared.inc();
         } catch (IOException e) {
             LOG.warn("Failed to declare queue {} on broker {}", queueName, messageBusConnectionData.brokerIp, e);
         }
     }
 
-    private byte[] serializeUsingKryo(AbstractFederationMessage msg) {
-        Kryo kryo = new Kryo();
-        ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
-            .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        Output output = new Output(stream);
-        kryo.writeClassAndObject(output, msg);
-        output.close();
-        return stream.toByteArray();
+    private void serializeUsingKryo(AbstractFederationMessage msg, Output output) {
+        KryoPool pool = getKryoPool();
+        Kryo kryo = pool.borrow();
+        try {
+            kryo.writeClassAndObject(output, msg);
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    /**
+     * Kryo instances are not thread safe and expensive to build, so they are pooled and shared by all queues. The
+     * pool is created lazily since the class loader it registers the message classes with is only complete once the
+     * bundle is active.
+     */
+    private KryoPool getKryoPool() {
+        KryoPool pool = kryoPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = kryoPool;
+                if (pool == null) {
+                    pool = new KryoPool.Builder(new FederationKryoFactory(createClassLoader())).softReferences()
+                        .build();
+                    kryoPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * A refreshed bundle gets a new class loader, so every cached class loader and every pooled Kryo, which caches
+     * resolved classes by name, may hold stale classes.
+     */
+    private void invalidateClassCaches() {
+        LOG.debug("Bundles were refreshed, invalidating class caches");
+        bundleGeneration.incrementAndGet();
+        kryoPool = null;
+    }
+
+    private static BundleContext getBundleContext() {
+        Bundle bundle = FrameworkUtil.getBundle(RabbitMessageBus.class);
+        return bundle != null ? bundle.getBundleContext() : null;
+    }
+
+    private static ClassLoader createClassLoader() {
+        BundleContext bundleContext = getBundleContext();
+        if (bundleContext == null) {
+            // not running in OSGi
+            return RabbitMessageBus.class.getClassLoader();
+        }
+        return new BundleDelegatingClassLoader(bundleContext.getBundle(),
+            Thread.currentThread().getContextClassLoader());
     }
 
     private static class MessageBusConnectionData {
         public String brokerIp;
-        public Connection conn;
+        public PooledChannel pooledChannel;
         public Channel channel;
+        public PublisherConfirmTracker confirmTracker;
+        // null when journaling is disabled, guarded by this
+        public OutboundJournal journal;
+        public volatile boolean queueDeclared = true;
+        public volatile boolean compressPayload = false;
+        // set while the broker blocks the connection, which it shares with other queues
+        public volatile boolean blocked = false;
+        public volatile IBackpressureListener backpressureListener;
+        public final BlockedListener blockedListener;
+        public final Set<FederationRabbitConsumer> manualAckConsumers = ConcurrentHashMap.newKeySet();
 
-        MessageBusConnectionData(String brokerIp, Connection conn, Channel channel) {
+        MessageBusConnectionData(String queueName, String brokerIp, PooledChannel pooledChannel,
+            PublisherConfirmTracker confirmTracker) {
             this.brokerIp = brokerIp;
-            this.conn = conn;
-            this.channel = channel;
+            this.pooledChannel = pooledChannel;
+            this.channel = pooledChannel.getChannel();
+            this.confirmTracker = confirmTracker;
+            this.blockedListener = new BlockedListener() {
+                @Override
+                public void handleBlocked(String reason) {
+                    LOG.warn("Broker {} blocked the connection of queue {}: {}", brokerIp, queueName, reason);
+                    RabbitCounters.connection_blocked.inc();
+                    setBlocked(queueName, true);
+                }
+
+                @Override
+                public void handleUnblocked() {
+                    LOG.info("Broker {} unblocked the connection of queue {}", brokerIp, queueName);
+                    setBlocked(queueName, false);
+                }
+            };
+            pooledChannel.getConnection().addBlockedListener(blockedListener);
+            // the connection may be shared with queues that were created while the broker already blocked it
+            this.blocked = pooledChannel.isConnectionBlocked();
+            // a recovered channel was shut down first, so this also covers recovery
+            channel.addShutdownListener(cause -> {
+                queueDeclared = false;
+                if (confirmTracker != null) {
+                    confirmTracker.failAll("channel was shut down: " + cause.getMessage());
+                }
+            });
+        }
+
+        // called on the connection thread
+        private void setBlocked(String queueName, boolean blocked) {
+            this.blocked = blocked;
+            IBackpressureListener listener = backpressureListener;
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.backpressureChanged(queueName, blocked);
+            } catch (RuntimeException e) {
+                LOG.error("Backpressure listener of queue {} failed", queueName, e);
+            }
         }
     }
 
     @Override
     public void detachHandler(String queueName, String consumerTag) {
+        await(submit(queueName, () -> {
+            cancelConsumer(queueName, consumerTag);
+            return null;
+        }), queueName);
+    }
+
+    private void cancelConsumer(String queueName, String consumerTag) {
         MessageBusConnectionData messageBusConnectionData = queueNameToConnectionData.get(queueName);
         if (messageBusConnectionData != null) {
             Channel channel = messageBusConnectionData.channel;
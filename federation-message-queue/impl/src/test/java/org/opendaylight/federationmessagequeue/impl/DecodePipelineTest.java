@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+
+public class DecodePipelineTest {
+
+    private final List<Long> deliveredTags = Collections.synchronizedList(new ArrayList<>());
+    private final List<AbstractFederationMessage> deliveredMessages =
+        Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Test
+    public void decodedOutOfOrderIsDeliveredInOrder() {
+        DecodePipeline pipeline = newPipeline(8);
+        ManualExecutor executor = new ManualExecutor();
+        List<TestMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            TestMessage msg = new TestMessage();
+            messages.add(msg);
+            assertTrue(pipeline.submit(i, () -> msg, executor));
+        }
+
+        executor.run(2);
+        executor.run(1);
+        assertTrue(deliveredTags.isEmpty());
+
+        executor.run(0);
+        assertEquals(3, deliveredTags.size());
+
+        executor.run(3);
+        assertEquals(4, deliveredTags.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Long.valueOf(i), deliveredTags.get(i));
+            assertSame(messages.get(i), deliveredMessages.get(i));
+        }
+    }
+
+    @Test
+    public void failedDecodeDoesNotHoldUpThePipeline() {
+        DecodePipeline pipeline = newPipeline(8);
+        ManualExecutor executor = new ManualExecutor();
+        pipeline.submit(0, () -> {
+            throw new IllegalStateException("corrupted");
+        }, executor);
+        pipeline.submit(1, () -> null, executor);
+        pipeline.submit(2, TestMessage::new, executor);
+
+        executor.run(2);
+        executor.run(1);
+        executor.run(0);
+
+        assertEquals(3, deliveredTags.size());
+        assertNull(deliveredMessages.get(0));
+        assertNull(deliveredMessages.get(1));
+        assertTrue(deliveredMessages.get(2) instanceof TestMessage);
+    }
+
+    @Test
+    public void fullPipelineWaitsForOldestDelivery() throws Exception {
+        DecodePipeline pipeline = newPipeline(2);
+        ManualExecutor executor = new ManualExecutor();
+        pipeline.submit(0, TestMessage::new, executor);
+        pipeline.submit(1, TestMessage::new, executor);
+
+        CompletableFuture<Boolean> third = CompletableFuture.supplyAsync(
+            () -> pipeline.submit(2, TestMessage::new, executor));
+        // a decoded delivery behind the head keeps its place until the head is passed on
+        executor.run(1);
+        Thread.sleep(200);
+        assertFalse(third.isDone());
+        assertEquals(0, pipeline.freePlaces());
+
+        executor.run(0);
+        assertTrue(third.get(10, TimeUnit.SECONDS));
+        executor.run(2);
+        assertEquals(3, deliveredTags.size());
+        assertEquals(2, pipeline.freePlaces());
+    }
+
+    @Test
+    public void rejectedDecodeAbandonsThePipeline() {
+        DecodePipeline pipeline = newPipeline(2);
+        ManualExecutor executor = new ManualExecutor();
+        pipeline.submit(0, TestMessage::new, executor);
+
+        assertFalse(pipeline.submit(1, TestMessage::new, task -> {
+            throw new RejectedExecutionException("closing");
+        }));
+        assertTrue(pipeline.isAbandoned());
+
+        // already queued deliveries still finish, but they are not passed on any more
+        executor.run(0);
+        assertTrue(deliveredTags.isEmpty());
+        assertEquals(2, pipeline.freePlaces());
+        assertFalse(pipeline.submit(2, TestMessage::new, executor));
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void abandonedTaskGivesItsPlaceBack() {
+        DecodePipeline pipeline = newPipeline(1);
+        ManualExecutor executor = new ManualExecutor();
+        pipeline.submit(0, TestMessage::new, executor);
+
+        // what closing the bus does with the tasks the decode executor never ran
+        ((DecodePipeline.DecodeTask) executor.tasks.get(0)).abandon();
+
+        assertTrue(pipeline.isAbandoned());
+        assertTrue(deliveredTags.isEmpty());
+        assertEquals(1, pipeline.freePlaces());
+    }
+
+    @Test
+    public void waitingDeliveryIsDroppedWhenBusCloses() throws Exception {
+        DecodePipeline pipeline = newPipeline(1);
+        ManualExecutor executor = new ManualExecutor();
+        pipeline.submit(0, TestMessage::new, executor);
+
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(
+            () -> pipeline.submit(1, TestMessage::new, executor));
+        closed.set(true);
+
+        assertFalse(waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test
+    public void concurrentDecodesAreDeliveredInOrder() throws Exception {
+        DecodePipeline pipeline = newPipeline(16);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                pipeline.submit(i, () -> {
+                    if (ThreadLocalRandom.current().nextInt(100) == 0) {
+                        Thread.yield();
+                    }
+                    return new TestMessage();
+                }, executor);
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(10000, deliveredTags.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Long.valueOf(i), deliveredTags.get(i));
+        }
+        assertEquals(16, pipeline.freePlaces());
+    }
+
+    private DecodePipeline newPipeline(int maxPendingDeliveries) {
+        return new DecodePipeline(maxPendingDeliveries, closed::get, (msg, deliveryTag) -> {
+            deliveredMessages.add(msg);
+            deliveredTags.add(deliveryTag);
+        });
+    }
+
+    /**
+     * Runs the decode tasks when the test says so, in whatever order it likes.
+     */
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void run(int index) {
+            tasks.get(index).run();
+        }
+    }
+
+    private static final class TestMessage extends AbstractFederationMessage {
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboundJournalTest {
+
+    private static final int SEGMENT_BYTES = 64;
+    private static final long MAX_BYTES = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsDrainInOrder() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        assertTrue(journal.isEmpty());
+        append(journal, "first", false);
+        append(journal, "second", true);
+        append(journal, "third", false);
+        assertEquals(3, journal.size());
+
+        RecordingPublisher publisher = new RecordingPublisher();
+        assertEquals(3, journal.drain(publisher));
+
+        assertEquals(3, publisher.bodies.size());
+        assertEquals("first", publisher.bodies.get(0));
+        assertEquals("second", publisher.bodies.get(1));
+        assertEquals("third", publisher.bodies.get(2));
+        assertEquals(false, publisher.compressed.get(0));
+        assertEquals(true, publisher.compressed.get(1));
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void onlyTheGivenLengthOfTheBodyIsJournaled() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        byte[] buffer = "body and garbage".getBytes(StandardCharsets.UTF_8);
+        assertTrue(journal.append(buffer, 4, false));
+
+        RecordingPublisher publisher = new RecordingPublisher();
+        journal.drain(publisher);
+
+        assertEquals("body", publisher.bodies.get(0));
+    }
+
+    @Test
+    public void drainStopsAtFailedPublishAndRetriesIt() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        for (int i = 0; i < 5; i++) {
+            append(journal, "msg" + i, false);
+        }
+
+        RecordingPublisher failing = new RecordingPublisher(2);
+        try {
+            journal.drain(failing);
+        } catch (IOException e) {
+            // the third publish failed
+        }
+        assertEquals(2, failing.bodies.size());
+        assertEquals(3, journal.size());
+
+        RecordingPublisher publisher = new RecordingPublisher();
+        assertEquals(3, journal.drain(publisher));
+        assertEquals("msg2", publisher.bodies.get(0));
+        assertEquals("msg4", publisher.bodies.get(2));
+    }
+
+    @Test
+    public void recordsRollOverIntoNewSegments() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        // 5 bytes of header and 20 of body, two records fit into a segment
+        for (int i = 0; i < 6; i++) {
+            append(journal, String.format("record %13d", i), false);
+        }
+        assertEquals(3, countFiles());
+
+        RecordingPublisher publisher = new RecordingPublisher();
+        assertEquals(6, journal.drain(publisher));
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(String.format("record %13d", i), publisher.bodies.get(i));
+        }
+        // published segments are deleted, the last one is kept for the next outage
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    public void recordLargerThanSegmentGetsSegmentOfItsOwn() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        append(journal, "small", false);
+        String large = new String(new char[3 * SEGMENT_BYTES]).replace('\0', 'x');
+        append(journal, large, false);
+        append(journal, "small again", false);
+
+        RecordingPublisher publisher = new RecordingPublisher();
+        assertEquals(3, journal.drain(publisher));
+
+        assertEquals(large, publisher.bodies.get(1));
+        assertEquals("small again", publisher.bodies.get(2));
+    }
+
+    @Test
+    public void fullJournalRejectsRecordsUntilDrained() throws Exception {
+        OutboundJournal journal = new OutboundJournal(folder.getRoot().toPath(), "queue", SEGMENT_BYTES, 30);
+        // 5 bytes of header each
+        append(journal, "0123456789", false);
+        assertFalse(journal.append(new byte[11], 11, false));
+        assertEquals(1, journal.size());
+
+        journal.drain(new RecordingPublisher());
+
+        assertTrue(journal.append(new byte[11], 11, false));
+    }
+
+    @Test
+    public void emptiedJournalReusesItsSegment() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        for (int round = 0; round < 10; round++) {
+            append(journal, "a record of 25 bytes.....", false);
+            append(journal, "a record of 25 bytes.....", false);
+            assertEquals(2, journal.drain(new RecordingPublisher()));
+        }
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    public void journalOfPreviousRunIsNotReplayed() throws Exception {
+        OutboundJournal previous = newJournal("queue");
+        append(previous, "from the previous run", false);
+        assertEquals(1, countFiles());
+
+        OutboundJournal journal = newJournal("queue");
+
+        assertEquals(0, countFiles());
+        assertTrue(journal.isEmpty());
+        assertEquals(0, journal.drain(new RecordingPublisher()));
+    }
+
+    @Test
+    public void queuesWithSimilarNamesKeepTheirSegments() throws Exception {
+        OutboundJournal underscore = newJournal("a_b");
+        append(underscore, "of a_b", false);
+
+        OutboundJournal dot = newJournal("a.b");
+        append(dot, "of a.b", false);
+        OutboundJournal slash = newJournal("a/b");
+        append(slash, "of a/b", false);
+
+        assertEquals(3, countFiles());
+        RecordingPublisher publisher = new RecordingPublisher();
+        underscore.drain(publisher);
+        assertEquals("of a_b", publisher.bodies.get(0));
+    }
+
+    @Test
+    public void queueNamesAreEncodedInjectively() {
+        assertEquals("queue_name-1", OutboundJournal.encodeQueueName("queue_name-1"));
+        assertEquals("a%2Eb", OutboundJournal.encodeQueueName("a.b"));
+        assertEquals("a%252Eb", OutboundJournal.encodeQueueName("a%2Eb"));
+        assertEquals("%C3%A9", OutboundJournal.encodeQueueName("é"));
+        assertNotEquals(OutboundJournal.encodeQueueName("a.b"), OutboundJournal.encodeQueueName("a_b"));
+        assertFalse(OutboundJournal.encodeQueueName("a.b.c").contains("."));
+    }
+
+    @Test
+    public void closeDeletesSegments() throws Exception {
+        OutboundJournal journal = newJournal("queue");
+        for (int i = 0; i < 6; i++) {
+            append(journal, "a record of 25 bytes.....", false);
+        }
+
+        journal.close();
+
+        assertTrue(journal.isEmpty());
+        assertEquals(0, countFiles());
+    }
+
+    private OutboundJournal newJournal(String queueName) throws IOException {
+        return new OutboundJournal(folder.getRoot().toPath(), queueName, SEGMENT_BYTES, MAX_BYTES);
+    }
+
+    private static void append(OutboundJournal journal, String body, boolean compressed) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        assertTrue(journal.append(bytes, bytes.length, compressed));
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.count();
+        }
+    }
+
+    private static final class RecordingPublisher implements OutboundJournal.RecordPublisher {
+        private final List<String> bodies = new ArrayList<>();
+        private final List<Boolean> compressed = new ArrayList<>();
+        private final int failAfter;
+
+        RecordingPublisher() {
+            this(Integer.MAX_VALUE);
+        }
+
+        RecordingPublisher(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void publish(byte[] body, boolean isCompressed) throws IOException {
+            if (bodies.size() == failAfter) {
+                throw new IOException("broker is gone");
+            }
+            bodies.add(new String(body, StandardCharsets.UTF_8));
+            compressed.add(isCompressed);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PayloadCompressionTest {
+
+    @Test
+    public void compressedBodyRoundTrip() throws Exception {
+        byte[] body = repetitiveBody(64 * 1024);
+
+        byte[] compressed = PayloadCompression.compress(body, body.length);
+
+        assertNotNull(compressed);
+        assertTrue(compressed.length < body.length / 4);
+        assertArrayEquals(body, PayloadCompression.decompress(compressed));
+    }
+
+    @Test
+    public void onlyTheGivenLengthIsCompressed() throws Exception {
+        byte[] body = repetitiveBody(4096);
+        byte[] buffer = Arrays.copyOf(body, 2 * body.length);
+        Arrays.fill(buffer, body.length, buffer.length, (byte) 7);
+
+        assertArrayEquals(body, PayloadCompression.decompress(PayloadCompression.compress(buffer, body.length)));
+    }
+
+    @Test
+    public void highlyCompressibleBodyRoundTrip() throws Exception {
+        byte[] body = new byte[8 * 1024 * 1024];
+
+        assertArrayEquals(body, PayloadCompression.decompress(PayloadCompression.compress(body, body.length)));
+    }
+
+    @Test
+    public void incompressibleBodyIsSentAsItIs() {
+        byte[] body = new byte[4096];
+        new Random(1).nextBytes(body);
+
+        assertNull(PayloadCompression.compress(body, body.length));
+        assertNull(PayloadCompression.compress(new byte[4], 4));
+    }
+
+    @Test
+    public void truncatedBodyIsRejected() {
+        byte[] body = repetitiveBody(64 * 1024);
+        byte[] compressed = PayloadCompression.compress(body, body.length);
+
+        assertRejected(Arrays.copyOf(compressed, compressed.length / 2));
+        assertRejected(Arrays.copyOf(compressed, 5));
+        assertRejected(Arrays.copyOf(compressed, 3));
+    }
+
+    @Test
+    public void corruptedBodyIsRejected() {
+        byte[] body = repetitiveBody(64 * 1024);
+        byte[] compressed = PayloadCompression.compress(body, body.length);
+        for (int i = 4; i < compressed.length; i++) {
+            compressed[i] = (byte) 0xFF;
+        }
+
+        assertRejected(compressed);
+    }
+
+    @Test
+    public void lengthPrefixBeyondMaximumIsRejectedBeforeAllocating() {
+        byte[] compressed = PayloadCompression.compress(repetitiveBody(4096), 4096);
+
+        // allocating any of these would fail with an OutOfMemoryError instead
+        assertRejected(withLength(compressed, PayloadCompression.MAX_BODY_BYTES + 1));
+        assertRejected(withLength(compressed, Integer.MAX_VALUE));
+        assertRejected(withLength(compressed, -1));
+    }
+
+    @Test
+    public void lengthPrefixBeyondDeflateRatioIsRejected() {
+        byte[] compressed = PayloadCompression.compress(repetitiveBody(4096), 4096);
+
+        assertRejected(withLength(compressed, PayloadCompression.MAX_BODY_BYTES));
+    }
+
+    private static byte[] repetitiveBody(int length) {
+        byte[] pattern = "{\"site-ip\":\"10.0.0.1\",\"mq-port-number\":5672},".getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = pattern[i % pattern.length];
+        }
+        return body;
+    }
+
+    private static byte[] withLength(byte[] compressed, int length) {
+        byte[] corrupted = compressed.clone();
+        corrupted[0] = (byte) (length >>> 24);
+        corrupted[1] = (byte) (length >>> 16);
+        corrupted[2] = (byte) (length >>> 8);
+        corrupted[3] = (byte) length;
+        return corrupted;
+    }
+
+    private static void assertRejected(byte[] compressed) {
+        try {
+            PayloadCompression.decompress(compressed);
+            fail("decompressed a corrupted body");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.messagequeue.IPublishFailureListener;
+
+public class PublisherConfirmTrackerTest {
+
+    private static final int WINDOW = 3;
+
+    private final List<String> failures = new ArrayList<>();
+    private PublisherConfirmTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new PublisherConfirmTracker("queue", WINDOW);
+        tracker.setFailureListener(new RecordingListener());
+    }
+
+    @Test
+    public void windowBoundsUnconfirmedMessages() throws Exception {
+        for (int seqNo = 1; seqNo <= WINDOW; seqNo++) {
+            assertTrue(tracker.tryAcquire());
+            tracker.track(seqNo, null);
+        }
+
+        assertFalse(tracker.tryAcquire());
+        assertFalse(tracker.acquire(10));
+        assertEquals(1, failures.size());
+
+        tracker.handleAck(2, false);
+        assertTrue(tracker.tryAcquire());
+        assertFalse(tracker.tryAcquire());
+    }
+
+    @Test
+    public void singleAckConfirmsOnlyItsMessage() throws Exception {
+        List<CompletableFuture<Void>> confirmed = publish(3);
+
+        tracker.handleAck(2, false);
+
+        assertFalse(confirmed.get(0).isDone());
+        assertConfirmed(confirmed.get(1));
+        assertFalse(confirmed.get(2).isDone());
+    }
+
+    @Test
+    public void multipleAckConfirmsAllUpToTag() throws Exception {
+        List<CompletableFuture<Void>> confirmed = publish(3);
+
+        tracker.handleAck(2, true);
+
+        assertConfirmed(confirmed.get(0));
+        assertConfirmed(confirmed.get(1));
+        assertFalse(confirmed.get(2).isDone());
+        assertTrue(tracker.tryAcquire());
+        assertTrue(tracker.tryAcquire());
+        assertFalse(tracker.tryAcquire());
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void multipleNackFailsAllUpToTag() throws Exception {
+        List<CompletableFuture<Void>> confirmed = publish(3);
+
+        tracker.handleNack(2, true);
+
+        assertFailed(confirmed.get(0));
+        assertFailed(confirmed.get(1));
+        assertFalse(confirmed.get(2).isDone());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0).startsWith("queue 2 "));
+    }
+
+    @Test
+    public void repeatedConfirmIsIgnored() throws Exception {
+        List<CompletableFuture<Void>> confirmed = publish(2);
+
+        tracker.handleAck(1, false);
+        tracker.handleNack(1, false);
+        tracker.handleAck(1, true);
+
+        assertConfirmed(confirmed.get(0));
+        assertFalse(confirmed.get(1).isDone());
+        assertTrue(failures.isEmpty());
+        // the unused place and the place of the first message, which was given back only once
+        assertTrue(tracker.tryAcquire());
+        assertTrue(tracker.tryAcquire());
+        assertFalse(tracker.tryAcquire());
+    }
+
+    @Test
+    public void oldMessagesExpire() throws Exception {
+        List<CompletableFuture<Void>> old = publish(2);
+        Thread.sleep(50);
+        assertTrue(tracker.tryAcquire());
+        CompletableFuture<Void> young = new CompletableFuture<>();
+        tracker.track(3, young);
+
+        tracker.expire(40);
+
+        assertFailed(old.get(0));
+        assertFailed(old.get(1));
+        assertFalse(young.isDone());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0).startsWith("queue 2 "));
+
+        tracker.expire(60000);
+        assertFalse(young.isDone());
+    }
+
+    @Test
+    public void shutdownFailsEverythingUnconfirmed() throws Exception {
+        List<CompletableFuture<Void>> confirmed = publish(3);
+        tracker.handleAck(1, false);
+
+        tracker.failAll("channel was shut down");
+
+        assertConfirmed(confirmed.get(0));
+        assertFailed(confirmed.get(1));
+        assertFailed(confirmed.get(2));
+        assertEquals(1, failures.size());
+        assertEquals("queue 2 channel was shut down", failures.get(0));
+        for (int i = 0; i < WINDOW; i++) {
+            assertTrue(tracker.tryAcquire());
+        }
+        assertFalse(tracker.tryAcquire());
+    }
+
+    @Test
+    public void cancelledMessageGivesItsPlaceBack() throws Exception {
+        List<CompletableFuture<Void>> confirmed = publish(WINDOW);
+
+        tracker.cancel(2);
+        tracker.handleAck(2, false);
+
+        assertFalse(confirmed.get(1).isDone());
+        assertTrue(tracker.tryAcquire());
+        assertFalse(tracker.tryAcquire());
+    }
+
+    @Test
+    public void failingListenerDoesNotStopConfirms() throws Exception {
+        tracker.setFailureListener((queueName, failedMessages, reason) -> {
+            throw new IllegalStateException("listener failed");
+        });
+        List<CompletableFuture<Void>> confirmed = publish(2);
+
+        tracker.handleNack(1, false);
+        tracker.handleAck(2, false);
+
+        assertFailed(confirmed.get(0));
+        assertConfirmed(confirmed.get(1));
+    }
+
+    private List<CompletableFuture<Void>> publish(int count) throws InterruptedException {
+        List<CompletableFuture<Void>> confirmed = new ArrayList<>();
+        for (int seqNo = 1; seqNo <= count; seqNo++) {
+            assertTrue(tracker.acquire(10));
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            tracker.track(seqNo, future);
+            confirmed.add(future);
+        }
+        return confirmed;
+    }
+
+    private static void assertConfirmed(CompletableFuture<Void> confirmed) {
+        assertTrue(confirmed.isDone());
+        assertFalse(confirmed.isCompletedExceptionally());
+    }
+
+    private static void assertFailed(CompletableFuture<Void> confirmed) throws InterruptedException {
+        assertTrue(confirmed.isCompletedExceptionally());
+        try {
+            confirmed.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private class RecordingListener implements IPublishFailureListener {
+        @Override
+        public void publishFailed(String queueName, int failedMessages, String reason) {
+            failures.add(queueName + " " + failedMessages + " " + reason);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opendaylight.federationmessagequeue.impl.RabbitConnectionPool.PooledChannel;
+
+public class RabbitConnectionPoolTest {
+
+    private final List<Connection> opened = new ArrayList<>();
+    private RabbitConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new MockConnectionPool();
+        pool.setMaxChannelsPerConnection(2);
+    }
+
+    @Test
+    public void channelsShareConnectionUpToMaximum() throws Exception {
+        PooledChannel first = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        PooledChannel second = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        PooledChannel third = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+
+        assertSame(first.getConnection(), second.getConnection());
+        assertNotSame(first.getConnection(), third.getConnection());
+        assertEquals(2, opened.size());
+    }
+
+    @Test
+    public void connectionIsClosedWithItsLastChannel() throws Exception {
+        PooledChannel first = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        PooledChannel second = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+
+        pool.releaseChannel(first);
+        verify(first.getChannel()).close();
+        verify(first.getConnection(), never()).close();
+
+        pool.releaseChannel(second);
+        verify(second.getConnection()).close();
+    }
+
+    @Test
+    public void freedSlotIsReused() throws Exception {
+        PooledChannel first = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        PooledChannel second = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        pool.releaseChannel(first);
+
+        PooledChannel third = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+
+        assertSame(second.getConnection(), third.getConnection());
+        assertEquals(1, opened.size());
+    }
+
+    @Test
+    public void closedConnectionIsEvicted() throws Exception {
+        PooledChannel first = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        Connection closed = first.getConnection();
+        when(closed.isOpen()).thenReturn(false);
+
+        PooledChannel second = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        assertNotSame(closed, second.getConnection());
+
+        // the evicted connection isn't handed out again, even with a free slot
+        pool.releaseChannel(second);
+        PooledChannel third = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        assertNotSame(closed, third.getConnection());
+
+        pool.releaseChannel(first);
+        verify(closed).abort();
+    }
+
+    @Test
+    public void connectionIsNotSharedAcrossCredentials() throws Exception {
+        PooledChannel guest = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        PooledChannel wrongPassword = pool.acquireChannel("10.0.0.1", 5672, "guest", "wrong");
+        PooledChannel otherUser = pool.acquireChannel("10.0.0.1", 5672, "admin", "guest");
+        PooledChannel otherBroker = pool.acquireChannel("10.0.0.2", 5672, "guest", "guest");
+
+        assertNotSame(guest.getConnection(), wrongPassword.getConnection());
+        assertNotSame(guest.getConnection(), otherUser.getConnection());
+        assertNotSame(guest.getConnection(), otherBroker.getConnection());
+        assertEquals(4, opened.size());
+    }
+
+    @Test
+    public void failedChannelGivesSlotBack() throws Exception {
+        PooledChannel first = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        when(first.getConnection().createChannel()).thenThrow(new IOException("channel refused"));
+        try {
+            pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+            fail("the channel was refused");
+        } catch (IOException e) {
+            // expected
+        }
+
+        pool.releaseChannel(first);
+
+        verify(first.getConnection()).close();
+    }
+
+    @Test
+    public void slowBrokerDoesNotHoldUpOtherBrokers() throws Exception {
+        CountDownLatch connecting = new CountDownLatch(1);
+        CountDownLatch brokerAnswers = new CountDownLatch(1);
+        pool = new MockConnectionPool() {
+            @Override
+            Connection openConnection(String host, int port, String user, String password,
+                ExecutorService executor) throws IOException, TimeoutException {
+                if (host.equals("10.0.0.1")) {
+                    connecting.countDown();
+                    try {
+                        brokerAnswers.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return super.openConnection(host, port, user, password, executor);
+            }
+        };
+        CompletableFuture<PooledChannel> slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+            } catch (IOException | TimeoutException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(connecting.await(10, TimeUnit.SECONDS));
+
+        PooledChannel fast = pool.acquireChannel("10.0.0.2", 5672, "guest", "guest");
+        pool.releaseChannel(fast);
+
+        brokerAnswers.countDown();
+        assertTrue(slow.get(10, TimeUnit.SECONDS).getConnection().isOpen());
+    }
+
+    @Test
+    public void channelKnowsThatItsConnectionIsBlocked() throws Exception {
+        PooledChannel first = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        ArgumentCaptor<BlockedListener> listener = ArgumentCaptor.forClass(BlockedListener.class);
+        verify(first.getConnection()).addBlockedListener(listener.capture());
+        assertFalse(first.isConnectionBlocked());
+
+        listener.getValue().handleBlocked("low on memory");
+        PooledChannel second = pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        assertTrue(second.isConnectionBlocked());
+
+        listener.getValue().handleUnblocked();
+        assertFalse(second.isConnectionBlocked());
+        verify(second.getConnection()).addBlockedListener(any(BlockedListener.class));
+    }
+
+    @Test
+    public void closeClosesAllConnections() throws Exception {
+        pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+        pool.acquireChannel("10.0.0.2", 5672, "guest", "guest");
+
+        pool.close();
+
+        for (Connection connection : opened) {
+            verify(connection).close();
+        }
+        try {
+            pool.acquireChannel("10.0.0.1", 5672, "guest", "guest");
+            fail("the pool is closed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private class MockConnectionPool extends RabbitConnectionPool {
+        @Override
+        Connection openConnection(String host, int port, String user, String password, ExecutorService executor)
+            throws IOException, TimeoutException {
+            Connection connection = mock(Connection.class);
+            when(connection.isOpen()).thenReturn(true);
+            Channel channel = mock(Channel.class);
+            when(channel.isOpen()).thenReturn(true);
+            when(connection.createChannel()).thenReturn(channel);
+            synchronized (opened) {
+                opened.add(connection);
+            }
+            return connection;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.local;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The queues that all the {@link LocalMessageBus} instances of the JVM share, playing the part of the broker. Queue
+ * names are global, the broker address given when creating a queue is ignored.
+ */
+final class LocalBroker {
+
+    static final LocalBroker INSTANCE = new LocalBroker();
+
+    private final ConcurrentMap<String, LocalQueue> nameToQueue = new ConcurrentHashMap<>();
+
+    // tests use a broker of their own
+    LocalBroker() {
+    }
+
+    /**
+     * Returns the queue with the given name, creating it if it doesn't exist yet.
+     */
+    LocalQueue declareQueue(String queueName) {
+        return nameToQueue.computeIfAbsent(queueName, LocalQueue::new);
+    }
+
+    LocalQueue getQueue(String queueName) {
+        return nameToQueue.get(queueName);
+    }
+
+    /**
+     * Removes the queue, dropping the messages which are still waiting in it and cancelling its consumers.
+     */
+    boolean deleteQueue(String queueName) {
+        LocalQueue queue = nameToQueue.remove(queueName);
+        if (queue == null) {
+            return false;
+        }
+        queue.delete();
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.local;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+import org.opendaylight.messagequeue.IMessageBusClient;
+import org.opendaylight.messagequeue.IPublishFailureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Message bus that keeps its queues in memory and hands the messages to the consumers of the same JVM, without a
+ * broker and without serializing them. It is meant for sites that run in one JVM, such as lab setups and benchmarks of
+ * the federation pipeline. The queue semantics follow {@code RabbitMessageBus}: creating a queue that already exists
+ * joins it, messages wait until a handler is attached, and the handlers of a queue get its messages one at a time in
+ * the order they were sent. Messages are passed by reference, so they must not be modified once sent.
+ */
+public class LocalMessageBus implements IMessageBusClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalMessageBus.class);
+
+    private final LocalBroker broker;
+    // consumer tag -> queue name, of the handlers attached through this bus
+    private final Map<String, String> consumerTagToQueueName = new ConcurrentHashMap<>();
+    private final AtomicLong nextConsumerTag = new AtomicLong();
+    private volatile int dispatchThreads = 4;
+    private volatile ExecutorService dispatchExecutor;
+
+    public LocalMessageBus() {
+        this(LocalBroker.INSTANCE);
+    }
+
+    LocalMessageBus(LocalBroker broker) {
+        this.broker = broker;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        if (dispatchThreads < 1) {
+            throw new IllegalArgumentException("dispatchThreads must be positive: " + dispatchThreads);
+        }
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public void init() {
+        LOG.info("starting {} with {} dispatch threads", getClass().getSimpleName(), dispatchThreads);
+        dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads);
+    }
+
+    public void close() {
+        LOG.info("closing {}", getClass().getSimpleName());
+        for (Map.Entry<String, String> entry : consumerTagToQueueName.entrySet()) {
+            detachHandler(entry.getValue(), entry.getKey());
+        }
+        ExecutorService executor = dispatchExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean createQueue(String queueName, String brokerIp) {
+        return createQueue(queueName, brokerIp, 0, null, null);
+    }
+
+    @Override
+    public boolean createQueue(String queueName, String mqBrokerIp, int mqPortNumber, String mqUser, String mqUserPwd) {
+        broker.declareQueue(queueName);
+        LOG.info("Declared local queue {}", queueName);
+        return true;
+    }
+
+    @Override
+    public void destroyQueue(String queueName) {
+        if (broker.deleteQueue(queueName)) {
+            LOG.info("Deleted local queue {}", queueName);
+        } else {
+            LOG.warn("Cancelled deletion of local queue {} because it doesn't exist", queueName);
+        }
+        consumerTagToQueueName.values().removeIf(queueName::equals);
+    }
+
+    @Override
+    public String attachHandler(String queueName, IGeneralFederationConsumer consumer) {
+        LocalQueue queue = broker.getQueue(queueName);
+        ExecutorService executor = dispatchExecutor;
+        if (queue == null || executor == null) {
+            LOG.warn("AttachHandler failed - local queue {} not found or bus not started", queueName);
+            return null;
+        }
+        String consumerTag = "local-" + nextConsumerTag.incrementAndGet();
+        consumerTagToQueueName.put(consumerTag, queueName);
+        queue.attach(consumerTag, consumer, executor);
+        return consumerTag;
+    }
+
+    @Override
+    public void detachHandler(String queueName, String handlerTag) {
+        consumerTagToQueueName.remove(handlerTag);
+        LocalQueue queue = broker.getQueue(queueName);
+        if (queue == null || !queue.detach(handlerTag)) {
+            LOG.warn("unknown local queue {} or handler {}, couldn't detach handler", queueName, handlerTag);
+        }
+    }
+
+    @Override
+    public void sendMsg(AbstractFederationMessage msg, String queueName) {
+        LocalQueue queue = broker.getQueue(queueName);
+        if (queue == null) {
+            // a broker silently drops messages to queues that don't exist
+            LOG.debug("Dropped message to unknown local queue {}", queueName);
+            return;
+        }
+        LOG.trace("Sending msg to local queue {}, msg {}", queueName, msg);
+        queue.send(msg);
+    }
+
+    @Override
+    public void setPublishFailureListener(String queueName, IPublishFailureListener listener) {
+        // messages are lost only when their queue is deleted, which is never reported as a failure
+    }
+
+    @Override
+    public void setPayloadCompression(String queueName, boolean compress) {
+        // messages are passed by reference, there is nothing to compress
+    }
+
+    @Override
+    public boolean serializesMessages() {
+        return false;
+    }
+}
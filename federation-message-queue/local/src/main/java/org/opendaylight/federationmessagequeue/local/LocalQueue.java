@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.local;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue of the {@link LocalBroker}. Messages wait in the queue until a consumer is attached, and are then handed to
+ * the consumers round robin, one at a time and in the order they were sent, like deliveries of a broker queue. At most
+ * one dispatch task of a queue runs at a time, so a consumer is never called concurrently for the same queue.
+ */
+@SuppressWarnings(value = { "checkstyle:illegalcatch" })
+final class LocalQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalQueue.class);
+
+    // a dispatch task gives its thread back after this many messages, so busy queues don't starve the others
+    private static final int MAX_MESSAGES_PER_DISPATCH = 256;
+
+    private final String name;
+    // all guarded by this
+    private final Deque<AbstractFederationMessage> pending = new ArrayDeque<>();
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private int nextSubscription = 0;
+    private boolean dispatching = false;
+    private boolean deleted = false;
+
+    LocalQueue(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void send(AbstractFederationMessage msg) {
+        Subscription toSchedule;
+        synchronized (this) {
+            if (deleted) {
+                LOG.debug("Dropped message to deleted queue {}", name);
+                return;
+            }
+            pending.add(msg);
+            toSchedule = claimDispatch();
+        }
+        schedule(toSchedule);
+    }
+
+    void attach(String consumerTag, IGeneralFederationConsumer consumer, Executor executor) {
+        Subscription toSchedule;
+        synchronized (this) {
+            subscriptions.add(new Subscription(consumerTag, consumer, executor));
+            toSchedule = claimDispatch();
+        }
+        schedule(toSchedule);
+    }
+
+    synchronized boolean detach(String consumerTag) {
+        for (Iterator<Subscription> iter = subscriptions.iterator(); iter.hasNext();) {
+            if (iter.next().consumerTag.equals(consumerTag)) {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    synchronized void delete() {
+        deleted = true;
+        pending.clear();
+        subscriptions.clear();
+    }
+
+    /**
+     * Marks the queue as dispatching if there is something to dispatch and nobody is doing it yet.
+     *
+     * @return The subscription whose executor should run the dispatch task, or null if none has to be scheduled.
+     */
+    private Subscription claimDispatch() {
+        if (dispatching || pending.isEmpty() || subscriptions.isEmpty()) {
+            return null;
+        }
+        dispatching = true;
+        return subscriptions.get(nextSubscription % subscriptions.size());
+    }
+
+    private void schedule(Subscription subscription) {
+        if (subscription == null) {
+            return;
+        }
+        try {
+            subscription.executor.execute(this::dispatch);
+        } catch (RejectedExecutionException e) {
+            // the bus of this consumer is closing, the messages stay queued for the next consumer
+            LOG.debug("Dispatcher of queue {} rejected the dispatch", name);
+            synchronized (this) {
+                dispatching = false;
+            }
+        }
+    }
+
+    private void dispatch() {
+        for (int i = 0; i < MAX_MESSAGES_PER_DISPATCH; i++) {
+            AbstractFederationMessage msg;
+            Subscription subscription;
+            synchronized (this) {
+                if (deleted || pending.isEmpty() || subscriptions.isEmpty()) {
+                    dispatching = false;
+                    return;
+                }
+                msg = pending.poll();
+                nextSubscription = nextSubscription % subscriptions.size();
+                subscription = subscriptions.get(nextSubscription++);
+            }
+            try {
+                subscription.consumer.consumeMsg(msg);
+            } catch (Throwable e) {
+                LOG.error("Consumer {} of queue {} failed: {}", subscription.consumerTag, name, e.getMessage(), e);
+            }
+        }
+        Subscription toSchedule;
+        synchronized (this) {
+            dispatching = false;
+            toSchedule = claimDispatch();
+        }
+        schedule(toSchedule);
+    }
+
+    private static final class Subscription {
+        private final String consumerTag;
+        private final IGeneralFederationConsumer consumer;
+        private final Executor executor;
+
+        Subscription(String consumerTag, IGeneralFederationConsumer consumer, Executor executor) {
+            this.consumerTag = consumerTag;
+            this.consumer = consumer;
+            this.executor = executor;
+        }
+    }
+}
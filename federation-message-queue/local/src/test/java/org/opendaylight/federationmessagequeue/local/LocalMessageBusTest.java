@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+
+public class LocalMessageBusTest {
+
+    private LocalBroker broker;
+    private LocalMessageBus producerBus;
+    private LocalMessageBus consumerBus;
+
+    @Before
+    public void setUp() {
+        broker = new LocalBroker();
+        producerBus = startBus(broker);
+        consumerBus = startBus(broker);
+    }
+
+    @After
+    public void tearDown() {
+        consumerBus.close();
+        producerBus.close();
+    }
+
+    @Test
+    public void messagesArriveInOrderByReference() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(1000);
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        assertNotNull(consumerBus.attachHandler("dynamic", consumer));
+
+        List<TestMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            TestMessage msg = new TestMessage(i);
+            sent.add(msg);
+            producerBus.sendMsg(msg, "dynamic");
+        }
+
+        assertReceivedInOrder(consumer, 1000);
+        synchronized (consumer.received) {
+            for (int i = 0; i < sent.size(); i++) {
+                assertSame(sent.get(i), consumer.received.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void messagesWaitForHandler() throws Exception {
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        for (int i = 0; i < 10; i++) {
+            producerBus.sendMsg(new TestMessage(i), "dynamic");
+        }
+        assertEquals(10, broker.getQueue("dynamic").size());
+
+        RecordingConsumer consumer = new RecordingConsumer(10);
+        assertNotNull(consumerBus.attachHandler("dynamic", consumer));
+
+        assertReceivedInOrder(consumer, 10);
+    }
+
+    @Test
+    public void creatingExistingQueueJoinsIt() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(2);
+        assertTrue(consumerBus.createQueue("control", "10.0.0.1", 5672, "guest", "guest"));
+        assertNotNull(consumerBus.attachHandler("control", consumer));
+        assertTrue(producerBus.createQueue("control", "10.0.0.2", 5672, "guest", "guest"));
+
+        producerBus.sendMsg(new TestMessage(0), "control");
+        consumerBus.sendMsg(new TestMessage(1), "control");
+
+        assertReceivedInOrder(consumer, 2);
+    }
+
+    @Test
+    public void handlersOfQueueShareItRoundRobin() throws Exception {
+        CountDownLatch done = new CountDownLatch(100);
+        RecordingConsumer first = new RecordingConsumer(done);
+        RecordingConsumer second = new RecordingConsumer(done);
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        assertNotNull(consumerBus.attachHandler("dynamic", first));
+        assertNotNull(consumerBus.attachHandler("dynamic", second));
+
+        for (int i = 0; i < 100; i++) {
+            producerBus.sendMsg(new TestMessage(i), "dynamic");
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        synchronized (first.received) {
+            assertEquals(50, first.received.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(2 * i, first.received.get(i).number);
+            }
+        }
+        synchronized (second.received) {
+            assertEquals(50, second.received.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(2 * i + 1, second.received.get(i).number);
+            }
+        }
+    }
+
+    @Test
+    public void queuesKeepTheirOwnOrder() throws Exception {
+        RecordingConsumer first = new RecordingConsumer(500);
+        RecordingConsumer second = new RecordingConsumer(500);
+        assertTrue(producerBus.createQueue("first", "10.0.0.1"));
+        assertTrue(producerBus.createQueue("second", "10.0.0.1"));
+        assertNotNull(consumerBus.attachHandler("first", first));
+        assertNotNull(consumerBus.attachHandler("second", second));
+
+        for (int i = 0; i < 500; i++) {
+            producerBus.sendMsg(new TestMessage(i), "first");
+            producerBus.sendMsg(new TestMessage(i), "second");
+        }
+
+        assertReceivedInOrder(first, 500);
+        assertReceivedInOrder(second, 500);
+    }
+
+    @Test
+    public void detachedHandlerGetsNothingMore() throws Exception {
+        RecordingConsumer first = new RecordingConsumer(1);
+        RecordingConsumer second = new RecordingConsumer(1);
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        String firstTag = consumerBus.attachHandler("dynamic", first);
+        producerBus.sendMsg(new TestMessage(0), "dynamic");
+        assertReceivedInOrder(first, 1);
+
+        consumerBus.detachHandler("dynamic", firstTag);
+        assertNotNull(consumerBus.attachHandler("dynamic", second));
+        producerBus.sendMsg(new TestMessage(0), "dynamic");
+
+        assertReceivedInOrder(second, 1);
+        assertReceivedInOrder(first, 1);
+    }
+
+    @Test
+    public void messagesToDestroyedQueueAreDropped() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(1);
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        assertNotNull(consumerBus.attachHandler("dynamic", consumer));
+        producerBus.destroyQueue("dynamic");
+
+        producerBus.sendMsg(new TestMessage(0), "dynamic");
+
+        assertNull(broker.getQueue("dynamic"));
+        assertFalse(consumer.done.await(200, TimeUnit.MILLISECONDS));
+        assertNull(consumerBus.attachHandler("dynamic", consumer));
+    }
+
+    @Test
+    public void queueCreatedAgainAfterDestroyStartsEmpty() throws Exception {
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        producerBus.sendMsg(new TestMessage(0), "dynamic");
+        producerBus.destroyQueue("dynamic");
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        producerBus.sendMsg(new TestMessage(1), "dynamic");
+
+        RecordingConsumer consumer = new RecordingConsumer(1);
+        assertNotNull(consumerBus.attachHandler("dynamic", consumer));
+
+        assertTrue(consumer.done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        synchronized (consumer.received) {
+            assertEquals(1, consumer.received.size());
+            assertEquals(1, consumer.received.get(0).number);
+        }
+    }
+
+    @Test
+    public void failingHandlerDoesNotStopTheQueue() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(2) {
+            @Override
+            public void consumeMsg(AbstractFederationMessage msg) {
+                super.consumeMsg(msg);
+                throw new IllegalStateException("failed consuming");
+            }
+        };
+        assertTrue(producerBus.createQueue("dynamic", "10.0.0.1"));
+        assertNotNull(consumerBus.attachHandler("dynamic", consumer));
+
+        producerBus.sendMsg(new TestMessage(0), "dynamic");
+        producerBus.sendMsg(new TestMessage(1), "dynamic");
+
+        assertReceivedInOrder(consumer, 2);
+    }
+
+    private static LocalMessageBus startBus(LocalBroker broker) {
+        LocalMessageBus bus = new LocalMessageBus(broker);
+        bus.setDispatchThreads(2);
+        bus.init();
+        return bus;
+    }
+
+    private static void assertReceivedInOrder(RecordingConsumer consumer, int count) throws InterruptedException {
+        assertTrue("timed out, got " + consumer.received.size(), consumer.done.await(10, TimeUnit.SECONDS));
+        // nothing more, such as a repetition, may follow
+        Thread.sleep(200);
+        synchronized (consumer.received) {
+            assertEquals(count, consumer.received.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, consumer.received.get(i).number);
+            }
+        }
+    }
+
+    private static class RecordingConsumer implements IGeneralFederationConsumer {
+        private final List<TestMessage> received = new ArrayList<>();
+        private final CountDownLatch done;
+
+        RecordingConsumer(int expected) {
+            this(new CountDownLatch(expected));
+        }
+
+        RecordingConsumer(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void consumeMsg(AbstractFederationMessage msg) {
+            synchronized (received) {
+                received.add((TestMessage) msg);
+            }
+            done.countDown();
+        }
+    }
+
+    private static final class TestMessage extends AbstractFederationMessage {
+        private final int number;
+
+        TestMessage(int number) {
+            this.number = number;
+        }
+    }
+}
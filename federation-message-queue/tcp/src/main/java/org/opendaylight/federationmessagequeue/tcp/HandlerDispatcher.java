@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongConsumer;
+
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the messages of one attached handler and passes them to it on the executor, one at a time and in the order
+ * they were offered. At most one dispatch task runs at a time, so the handler is never called concurrently.
+ */
+@SuppressWarnings(value = { "checkstyle:illegalcatch" })
+final class HandlerDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HandlerDispatcher.class);
+
+    // a dispatch task gives its thread back after this many messages, so busy queues don't starve the others
+    private static final int MAX_MESSAGES_PER_DISPATCH = 256;
+
+    private final String consumerTag;
+    private final IGeneralFederationConsumer consumer;
+    private final TcpMessageCodec codec;
+    private final Executor executor;
+    private final LongConsumer consumedListener;
+    // all guarded by this
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private boolean dispatching = false;
+    private boolean stopped = false;
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param consumedListener Called after each dispatch task with the sequence of the last message it consumed.
+     */
+    HandlerDispatcher(String consumerTag, IGeneralFederationConsumer consumer, TcpMessageCodec codec,
+        Executor executor, LongConsumer consumedListener) {
+        this.consumerTag = consumerTag;
+        this.consumer = consumer;
+        this.codec = codec;
+        this.executor = executor;
+        this.consumedListener = consumedListener;
+    }
+
+    String getConsumerTag() {
+        return consumerTag;
+    }
+
+    void offer(long sequence, byte[] body) {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            pending.add(new Entry(sequence, body));
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Drops the messages that weren't dispatched yet. A dispatch that is underway finishes its current message.
+     */
+    synchronized void stop() {
+        stopped = true;
+        pending.clear();
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(this::dispatch);
+        } catch (RejectedExecutionException e) {
+            // the bus is closing
+            LOG.debug("Dispatcher of handler {} rejected the dispatch", consumerTag);
+            synchronized (this) {
+                dispatching = false;
+            }
+        }
+    }
+
+    private void dispatch() {
+        long lastSequence = -1;
+        for (int i = 0; i < MAX_MESSAGES_PER_DISPATCH; i++) {
+            Entry entry;
+            synchronized (this) {
+                entry = pending.poll();
+            }
+            if (entry == null) {
+                break;
+            }
+            try {
+                AbstractFederationMessage msg = codec.decode(entry.body);
+                if (msg != null) {
+                    consumer.consumeMsg(msg);
+                }
+            } catch (Throwable e) {
+                LOG.error("Handler {} failed: {}", consumerTag, e.getMessage(), e);
+            }
+            lastSequence = entry.sequence;
+        }
+        if (lastSequence >= 0) {
+            consumedListener.accept(lastSequence);
+        }
+        synchronized (this) {
+            if (pending.isEmpty() || stopped) {
+                dispatching = false;
+                return;
+            }
+        }
+        schedule();
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final byte[] body;
+
+        Entry(long sequence, byte[] body) {
+            this.sequence = sequence;
+            this.body = body;
+        }
+    }
+}
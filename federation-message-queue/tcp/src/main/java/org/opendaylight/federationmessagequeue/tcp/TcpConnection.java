@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection between two nodes. Frames are read by one thread and handed to the {@link FrameHandler}; frames are
+ * written by another thread from an outbox, so {@link #send} never blocks on the network. The writer flushes only when
+ * the outbox runs empty, so a burst of frames goes out in few packets.
+ */
+@SuppressWarnings(value = { "checkstyle:illegalcatch" })
+final class TcpConnection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpConnection.class);
+
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+    private static final TcpFrame CLOSE_MARKER = TcpFrame.of(TcpFrame.HELLO, "");
+
+    /**
+     * Receives the frames of a connection on its reader thread.
+     */
+    interface FrameHandler {
+        void frameReceived(TcpConnection connection, TcpFrame frame) throws IOException;
+
+        /**
+         * Called once, when the connection failed or was closed by either side.
+         */
+        void connectionClosed(TcpConnection connection);
+    }
+
+    private final SocketChannel socketChannel;
+    private final String remoteAddress;
+    private final BlockingQueue<TcpFrame> outbox = new LinkedBlockingQueue<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile FrameHandler handler;
+
+    TcpConnection(SocketChannel socketChannel) throws IOException {
+        this.socketChannel = socketChannel;
+        this.remoteAddress = String.valueOf(socketChannel.getRemoteAddress());
+        socketChannel.configureBlocking(true);
+        socketChannel.socket().setTcpNoDelay(true);
+        socketChannel.socket().setKeepAlive(true);
+    }
+
+    /**
+     * Starts reading and writing on threads of the executor, which must not bound the number of running tasks.
+     */
+    void start(FrameHandler frameHandler, Executor executor) {
+        this.handler = frameHandler;
+        if (closed.get()) {
+            // closed before it was started, the handler wasn't told yet
+            frameHandler.connectionClosed(this);
+            return;
+        }
+        executor.execute(this::readLoop);
+        executor.execute(this::writeLoop);
+    }
+
+    String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Queues the frame for sending. Frames queued after the connection was closed are dropped silently, the protocol
+     * resends whatever wasn't acked on the next connection.
+     */
+    void send(TcpFrame frame) {
+        if (!closed.get()) {
+            outbox.add(frame);
+        }
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        outbox.add(CLOSE_MARKER);
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close connection to {}", remoteAddress, e);
+        }
+        FrameHandler frameHandler = handler;
+        if (frameHandler != null) {
+            frameHandler.connectionClosed(this);
+        }
+    }
+
+    private void readLoop() {
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new ChannelInput(socketChannel), STREAM_BUFFER_BYTES));
+            while (!closed.get()) {
+                handler.frameReceived(this, TcpFrame.read(in));
+            }
+        } catch (Throwable e) {
+            if (!closed.get()) {
+                LOG.info("Connection to {} failed: {}", remoteAddress, e.getMessage());
+                LOG.debug("Connection failure", e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new ChannelOutput(socketChannel), STREAM_BUFFER_BYTES));
+            while (!closed.get()) {
+                TcpFrame frame = outbox.poll();
+                if (frame == null) {
+                    out.flush();
+                    frame = outbox.take();
+                }
+                if (frame == CLOSE_MARKER) {
+                    break;
+                }
+                frame.write(out);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            if (!closed.get()) {
+                LOG.info("Writing to {} failed: {}", remoteAddress, e.getMessage());
+                LOG.debug("Write failure", e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /*
+     * The streams of Channels lock the channel for each read or write, so a reader blocked on the socket would block
+     * the writer. A socket channel supports one concurrent reader and writer, so these streams call it directly.
+     */
+    private static final class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return channel.read(ByteBuffer.wrap(bytes, off, len));
+        }
+    }
+
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            write(new byte[] { (byte) value }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
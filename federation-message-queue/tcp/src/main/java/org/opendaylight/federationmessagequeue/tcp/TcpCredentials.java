@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Objects;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The user and password a node proves it knows when a connection starts, without sending the password. Each side
+ * sends a random challenge in its {@link TcpFrame#HELLO} and answers the challenge of the other side with an
+ * {@link TcpFrame#AUTH}, which carries its user and an HMAC of the challenge keyed with its password. The side that
+ * connected and the side that accepted answer differently, so an answer can't be reflected back to the node that gave
+ * it.
+ */
+final class TcpCredentials {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int CHALLENGE_BYTES = 32;
+    private static final byte CONNECTING_SIDE = 1;
+    private static final byte ACCEPTING_SIDE = 2;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String user;
+    private final String password;
+    private final SecretKeySpec key;
+
+    TcpCredentials(String user, String password) {
+        this.user = user != null ? user : "";
+        this.password = password != null ? password : "";
+        // an empty key isn't allowed
+        byte[] keyBytes = this.password.isEmpty() ? new byte[1] : this.password.getBytes(StandardCharsets.UTF_8);
+        this.key = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+    }
+
+    String getUser() {
+        return user;
+    }
+
+    static byte[] newChallenge() {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * Answers the challenge the other side sent.
+     *
+     * @param connecting Whether this side opened the connection.
+     */
+    byte[] answer(byte[] challenge, boolean connecting) {
+        return mac(challenge, connecting ? CONNECTING_SIDE : ACCEPTING_SIDE);
+    }
+
+    /**
+     * Checks the answer of the other side to the challenge this side sent.
+     *
+     * @param connecting Whether this side opened the connection.
+     */
+    boolean accepts(String answeringUser, byte[] challenge, byte[] answer, boolean connecting) {
+        byte[] expected = mac(challenge, connecting ? ACCEPTING_SIDE : CONNECTING_SIDE);
+        // compared in constant time, so the answer can't be guessed byte by byte
+        return user.equals(answeringUser) && MessageDigest.isEqual(expected, answer);
+    }
+
+    private byte[] mac(byte[] challenge, byte side) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(side);
+            mac.update(user.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            // every JVM has HmacSHA256
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TcpCredentials)) {
+            return false;
+        }
+        TcpCredentials other = (TcpCredentials) obj;
+        return user.equals(other.user) && password.equals(other.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(user, password);
+    }
+
+    @Override
+    public String toString() {
+        // never the password
+        return "TcpCredentials [user=" + user + "]";
+    }
+}
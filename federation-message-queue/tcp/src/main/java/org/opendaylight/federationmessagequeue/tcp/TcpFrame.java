@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A frame of the site to site protocol. On the wire each frame is the length of the rest of the frame as an int, the
+ * frame type as a byte, and the fields of the type. Queue names go as modified UTF-8, sequence numbers as longs and
+ * message bodies as an int length followed by the encoded message.
+ *
+ * <p>A connection starts with a {@link #HELLO} in each direction, which carries the node id of the sender, so each
+ * side can tell a reconnect of the same node from a restarted one, and a challenge. Each side answers the challenge of
+ * the other with an {@link #AUTH} as described in {@link TcpCredentials}, and the connection is only used once both
+ * answers were checked.
+ */
+final class TcpFrame {
+
+    // node id, challenge
+    static final byte HELLO = 1;
+    // queue name; creates a queue on the receiving node if it doesn't exist
+    static final byte DECLARE = 2;
+    // queue name
+    static final byte DELETE = 3;
+    // queue name, sequence, body; a message for a queue of the receiving node
+    static final byte SEND = 4;
+    // queue name, sequence; all SENDs up to the sequence were queued
+    static final byte SEND_ACK = 5;
+    // queue name, sequence of the last DELIVER received so far
+    static final byte SUBSCRIBE = 6;
+    // queue name
+    static final byte UNSUBSCRIBE = 7;
+    // queue name, sequence, body; a message of a queue of the sending node
+    static final byte DELIVER = 8;
+    // queue name, sequence; all DELIVERs up to the sequence were consumed
+    static final byte DELIVER_ACK = 9;
+    // user, answer to the challenge of the receiving node
+    static final byte AUTH = 10;
+
+    // guards against reading garbage as a length, no message comes close to it
+    static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    final byte type;
+    final String name;
+    final long sequence;
+    final byte[] body;
+
+    private TcpFrame(byte type, String name, long sequence, byte[] body) {
+        this.type = type;
+        this.name = name;
+        this.sequence = sequence;
+        this.body = body;
+    }
+
+    static TcpFrame hello(String nodeId, byte[] challenge) {
+        return new TcpFrame(HELLO, nodeId, 0, challenge);
+    }
+
+    static TcpFrame auth(String user, byte[] answer) {
+        return new TcpFrame(AUTH, user, 0, answer);
+    }
+
+    static TcpFrame of(byte type, String queueName) {
+        return new TcpFrame(type, queueName, 0, NO_BODY);
+    }
+
+    static TcpFrame of(byte type, String queueName, long sequence) {
+        return new TcpFrame(type, queueName, sequence, NO_BODY);
+    }
+
+    static TcpFrame of(byte type, String queueName, long sequence, byte[] body) {
+        return new TcpFrame(type, queueName, sequence, body);
+    }
+
+    private boolean hasSequence() {
+        return type != HELLO && type != DECLARE && type != DELETE && type != UNSUBSCRIBE && type != AUTH;
+    }
+
+    private boolean hasBody() {
+        return type == SEND || type == DELIVER || type == HELLO || type == AUTH;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        // the body is written straight to the stream, only the small header is buffered to learn its length
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+        DataOutputStream fields = new DataOutputStream(header);
+        fields.writeByte(type);
+        fields.writeUTF(name);
+        if (hasSequence()) {
+            fields.writeLong(sequence);
+        }
+        if (hasBody()) {
+            fields.writeInt(body.length);
+        }
+        out.writeInt(header.size() + (hasBody() ? body.length : 0));
+        header.writeTo(out);
+        if (hasBody()) {
+            out.write(body);
+        }
+    }
+
+    static TcpFrame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(frame));
+        byte type = fields.readByte();
+        if (type < HELLO || type > AUTH) {
+            throw new IOException("Unknown frame type " + type);
+        }
+        String name = fields.readUTF();
+        TcpFrame header = new TcpFrame(type, name, 0, NO_BODY);
+        long sequence = header.hasSequence() ? fields.readLong() : 0;
+        byte[] body = NO_BODY;
+        if (header.hasBody()) {
+            int bodyLength = fields.readInt();
+            if (bodyLength < 0 || bodyLength > fields.available()) {
+                // checked before allocating, the peer may not even be authenticated yet
+                throw new IOException("Invalid body length " + bodyLength);
+            }
+            body = new byte[bodyLength];
+            fields.readFully(body);
+        }
+        return new TcpFrame(type, name, sequence, body);
+    }
+
+    @Override
+    public String toString() {
+        return "TcpFrame [type=" + type + ", name=" + name + ", sequence=" + sequence + ", body=" + body.length
+            + " bytes]";
+    }
+}
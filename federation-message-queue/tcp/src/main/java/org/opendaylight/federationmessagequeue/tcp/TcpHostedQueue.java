@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A queue that lives on this node. Messages sent to it locally or by other nodes wait until a handler is attached,
+ * here or on another node, and are then handed to the handlers round robin in the order they arrived, like a broker
+ * queue would.
+ *
+ * <p>Each remote subscriber is identified by its node id and outlives its connection: the messages delivered to it
+ * are kept until it acks them, and are delivered again on its next connection, starting after the last one it got.
+ * While disconnected it isn't given new messages. A subscriber that doesn't come back within the expiry is removed
+ * and its unacked messages go back to the head of the queue.
+ */
+final class TcpHostedQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpHostedQueue.class);
+
+    private final String name;
+    private final int deliveryWindow;
+    // all guarded by this
+    private final Deque<byte[]> pending = new ArrayDeque<>();
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    // the last SEND sequence queued from each node, to drop the SENDs a node repeats after reconnecting
+    private final Map<String, Long> nodeIdToLastSendSequence = new HashMap<>();
+    private int nextSubscriber = 0;
+    private boolean deleted = false;
+
+    /**
+     * Creates a queue.
+     *
+     * @param deliveryWindow The number of unacked messages a remote subscriber may have.
+     */
+    TcpHostedQueue(String name, int deliveryWindow) {
+        this.name = name;
+        this.deliveryWindow = deliveryWindow;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    synchronized void send(byte[] body) {
+        if (deleted) {
+            LOG.debug("Dropped message to deleted queue {}", name);
+            return;
+        }
+        pending.add(body);
+        pump();
+    }
+
+    /**
+     * Queues a message sent by another node, unless it is a repetition of one that was already queued.
+     */
+    synchronized void sendFrom(String nodeId, long sequence, byte[] body) {
+        Long lastSequence = nodeIdToLastSendSequence.get(nodeId);
+        if (lastSequence != null && sequence <= lastSequence) {
+            LOG.trace("Dropped repeated message {} from {} to queue {}", sequence, nodeId, name);
+            return;
+        }
+        nodeIdToLastSendSequence.put(nodeId, sequence);
+        send(body);
+    }
+
+    synchronized void attach(HandlerDispatcher dispatcher) {
+        subscribers.add(new LocalSubscriber(dispatcher));
+        pump();
+    }
+
+    synchronized boolean detach(String consumerTag) {
+        for (Iterator<Subscriber> iter = subscribers.iterator(); iter.hasNext();) {
+            Subscriber subscriber = iter.next();
+            if (subscriber instanceof LocalSubscriber
+                && ((LocalSubscriber) subscriber).dispatcher.getConsumerTag().equals(consumerTag)) {
+                ((LocalSubscriber) subscriber).dispatcher.stop();
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Subscribes a node, or resumes its subscription on a new connection.
+     *
+     * @param lastReceived The sequence of the last message the node received on its previous connections.
+     */
+    synchronized void subscribe(String nodeId, TcpConnection connection, long lastReceived) {
+        if (deleted) {
+            return;
+        }
+        RemoteSubscriber subscriber = findRemote(nodeId);
+        if (subscriber == null) {
+            subscriber = new RemoteSubscriber(nodeId);
+            subscribers.add(subscriber);
+            LOG.info("Node {} subscribed to queue {}", nodeId, name);
+        } else {
+            LOG.info("Node {} resumed its subscription to queue {} after message {}", nodeId, name, lastReceived);
+        }
+        subscriber.connection = connection;
+        subscriber.acked(lastReceived);
+        for (Delivery delivery : subscriber.unacked) {
+            connection.send(TcpFrame.of(TcpFrame.DELIVER, name, delivery.sequence, delivery.body));
+        }
+        pump();
+    }
+
+    synchronized void unsubscribe(String nodeId) {
+        RemoteSubscriber subscriber = findRemote(nodeId);
+        if (subscriber != null) {
+            LOG.info("Node {} unsubscribed from queue {}", nodeId, name);
+            removeRemote(subscriber);
+        }
+    }
+
+    synchronized void deliverAcked(String nodeId, long sequence) {
+        RemoteSubscriber subscriber = findRemote(nodeId);
+        if (subscriber != null) {
+            subscriber.acked(sequence);
+            pump();
+        }
+    }
+
+    /**
+     * Marks the subscribers of the connection as disconnected.
+     */
+    synchronized void disconnected(TcpConnection connection, long nowMillis) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber instanceof RemoteSubscriber && ((RemoteSubscriber) subscriber).connection == connection) {
+                ((RemoteSubscriber) subscriber).connection = null;
+                ((RemoteSubscriber) subscriber).disconnectedMillis = nowMillis;
+            }
+        }
+    }
+
+    /**
+     * Removes the remote subscribers that are disconnected since before the given time.
+     */
+    synchronized void expireSubscribers(long disconnectedBeforeMillis) {
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            if (subscriber instanceof RemoteSubscriber) {
+                RemoteSubscriber remote = (RemoteSubscriber) subscriber;
+                if (remote.connection == null && remote.disconnectedMillis < disconnectedBeforeMillis) {
+                    LOG.info("Node {} didn't resume its subscription to queue {}, {} unacked messages are requeued",
+                        remote.nodeId, name, remote.unacked.size());
+                    removeRemote(remote);
+                }
+            }
+        }
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Drops the messages and the subscribers. Remote subscribers aren't told, like the consumers of a broker queue
+     * that was deleted they just stop getting messages.
+     */
+    synchronized void delete() {
+        deleted = true;
+        pending.clear();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber instanceof LocalSubscriber) {
+                ((LocalSubscriber) subscriber).dispatcher.stop();
+            }
+        }
+        subscribers.clear();
+    }
+
+    private RemoteSubscriber findRemote(String nodeId) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber instanceof RemoteSubscriber && ((RemoteSubscriber) subscriber).nodeId.equals(nodeId)) {
+                return (RemoteSubscriber) subscriber;
+            }
+        }
+        return null;
+    }
+
+    private void removeRemote(RemoteSubscriber subscriber) {
+        subscribers.remove(subscriber);
+        // the unacked messages go back in front of the others, in their original order
+        for (Iterator<Delivery> iter = subscriber.unacked.descendingIterator(); iter.hasNext();) {
+            pending.addFirst(iter.next().body);
+        }
+        subscriber.unacked.clear();
+        pump();
+    }
+
+    /*
+     * Hands the pending messages to the subscribers that can take them, round robin.
+     */
+    private void pump() {
+        while (!pending.isEmpty() && !subscribers.isEmpty()) {
+            Subscriber subscriber = null;
+            for (int i = 0; i < subscribers.size(); i++) {
+                Subscriber candidate = subscribers.get((nextSubscriber + i) % subscribers.size());
+                if (candidate.canAccept()) {
+                    subscriber = candidate;
+                    nextSubscriber = (nextSubscriber + i + 1) % subscribers.size();
+                    break;
+                }
+            }
+            if (subscriber == null) {
+                return;
+            }
+            subscriber.accept(pending.poll());
+        }
+    }
+
+    private interface Subscriber {
+        boolean canAccept();
+
+        void accept(byte[] body);
+    }
+
+    private static final class LocalSubscriber implements Subscriber {
+        private final HandlerDispatcher dispatcher;
+
+        LocalSubscriber(HandlerDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public boolean canAccept() {
+            return true;
+        }
+
+        @Override
+        public void accept(byte[] body) {
+            dispatcher.offer(0, body);
+        }
+    }
+
+    private final class RemoteSubscriber implements Subscriber {
+        private final String nodeId;
+        private final Deque<Delivery> unacked = new ArrayDeque<>();
+        private long nextSequence = 1;
+        private TcpConnection connection;
+        private long disconnectedMillis;
+
+        RemoteSubscriber(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public boolean canAccept() {
+            return connection != null && unacked.size() < deliveryWindow;
+        }
+
+        @Override
+        public void accept(byte[] body) {
+            Delivery delivery = new Delivery(nextSequence++, body);
+            unacked.add(delivery);
+            connection.send(TcpFrame.of(TcpFrame.DELIVER, name, delivery.sequence, delivery.body));
+        }
+
+        void acked(long sequence) {
+            while (!unacked.isEmpty() && unacked.peekFirst().sequence <= sequence) {
+                unacked.pollFirst();
+            }
+        }
+    }
+
+    private static final class Delivery {
+        private final long sequence;
+        private final byte[] body;
+
+        Delivery(long sequence, byte[] body) {
+            this.sequence = sequence;
+            this.body = body;
+        }
+    }
+}
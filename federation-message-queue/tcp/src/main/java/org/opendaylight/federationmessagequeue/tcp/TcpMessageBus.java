@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+import org.opendaylight.messagequeue.IMessageBusClient;
+import org.opendaylight.messagequeue.IPublishFailureListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Message bus that connects the sites directly over TCP instead of through a broker. Every node listens on a port and
+ * hosts the queues that are created with its own address as the broker address, the way the sites of a federation
+ * create their queues on the broker of the producing site. So a producer sends to its dynamic queues locally and the
+ * messages reach the subscribed site in one hop, and a consumer sends its control messages straight to the producer.
+ *
+ * <p>Each pair of nodes shares a connection per direction, carrying length prefixed {@link TcpFrame}s for all the
+ * queues. Messages to and from the queues of another node are numbered and acked, so a connection that fails is
+ * reopened and resumes where it stopped, without losing or repeating messages. Messages are only kept in memory, a
+ * node that restarts loses the messages of its queues, as a broker does with transient queues.
+ *
+ * <p>Nodes authenticate each other with a user and password when a connection starts, see {@link TcpCredentials}.
+ * Other nodes must use the user and password configured on this node as the credentials of its queues, the way sites
+ * use the credentials of a broker. Messages are only decoded into classes that are registered with Kryo, so the
+ * subscription payloads of plugins must be strings, primitives or classes given to
+ * {@link #setRegisteredClasses(String)}. The node only listens on the loopback address unless configured otherwise.
+ */
+@SuppressWarnings(value = { "checkstyle:illegalcatch" })
+public class TcpMessageBus implements IMessageBusClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpMessageBus.class);
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final TcpMessageCodec codec = new TcpMessageCodec();
+    private final Map<String, TcpHostedQueue> nameToHostedQueue = new ConcurrentHashMap<>();
+    // host:port -> peer
+    private final Map<String, TcpPeer> addressToPeer = new ConcurrentHashMap<>();
+    // the queues of other nodes that were created through this bus
+    private final Map<String, TcpPeer> queueNameToPeer = new ConcurrentHashMap<>();
+    private final Map<String, String> consumerTagToQueueName = new ConcurrentHashMap<>();
+    private final Map<String, IPublishFailureListener> queueNameToPublishFailureListener = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> hostToIsLocal = new ConcurrentHashMap<>();
+    private final Set<TcpConnection> inboundConnections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextConsumerTag = new AtomicLong();
+    // the reader and writer of each connection block, so this pool must not be bounded
+    private final ExecutorService ioExecutor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private volatile ExecutorService dispatchExecutor;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile int boundPort;
+    private volatile String listenAddress = "127.0.0.1";
+    private volatile String user = "guest";
+    private volatile String password = "guest";
+    private volatile TcpCredentials credentials;
+    private volatile int listenPort = 5673;
+    private volatile int dispatchThreads = 4;
+    private volatile int deliveryWindow = 1000;
+    private volatile int maxUnackedMessages = 10000;
+    private volatile long reconnectIntervalMillis = 1000;
+    private volatile long subscriberExpiryMillis = 60000;
+    private final BundleListener bundleRefreshListener = event -> {
+        if (event.getType() == BundleEvent.UNRESOLVED) {
+            codec.invalidate();
+        }
+    };
+
+    public void setListenAddress(String listenAddress) {
+        this.listenAddress = listenAddress;
+    }
+
+    /**
+     * Sets the user other nodes must authenticate with, which this node also uses for the queues of other nodes that
+     * are created without credentials.
+     */
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Sets the classes, besides the federation messages, that may be sent through the bus, as a comma separated list
+     * of class names. The list must be the same on all nodes.
+     */
+    public void setRegisteredClasses(String classNames) {
+        List<String> names = new ArrayList<>();
+        if (classNames != null) {
+            for (String className : classNames.split(",")) {
+                if (!className.trim().isEmpty()) {
+                    names.add(className.trim());
+                }
+            }
+        }
+        codec.setRegisteredClassNames(names);
+    }
+
+    /**
+     * Sets the port to listen on, 0 picks a free one.
+     */
+    public void setListenPort(int listenPort) {
+        this.listenPort = listenPort;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        if (dispatchThreads < 1) {
+            throw new IllegalArgumentException("dispatchThreads must be positive: " + dispatchThreads);
+        }
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public void setDeliveryWindow(int deliveryWindow) {
+        this.deliveryWindow = deliveryWindow;
+    }
+
+    public void setMaxUnackedMessages(int maxUnackedMessages) {
+        this.maxUnackedMessages = maxUnackedMessages;
+    }
+
+    public void setReconnectIntervalMillis(long reconnectIntervalMillis) {
+        this.reconnectIntervalMillis = reconnectIntervalMillis;
+    }
+
+    public void setSubscriberExpiryMillis(long subscriberExpiryMillis) {
+        this.subscriberExpiryMillis = subscriberExpiryMillis;
+    }
+
+    /**
+     * The port this node listens on, which other nodes must use to reach its queues.
+     */
+    public int getListenPort() {
+        return boundPort;
+    }
+
+    public void init() throws IOException {
+        LOG.info("starting {} on {}:{}", getClass().getSimpleName(), listenAddress, listenPort);
+        BundleContext bundleContext = getBundleContext();
+        if (bundleContext != null) {
+            bundleContext.addBundleListener(bundleRefreshListener);
+        }
+        credentials = new TcpCredentials(user, password);
+        dispatchExecutor = Executors.newFixedThreadPool(dispatchThreads);
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(listenAddress, listenPort));
+        serverChannel = channel;
+        boundPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        ioExecutor.execute(this::acceptLoop);
+        scheduler.scheduleWithFixedDelay(this::expireSubscribers, subscriberExpiryMillis, subscriberExpiryMillis,
+            TimeUnit.MILLISECONDS);
+        LOG.info("Node {} listens on port {}", nodeId, boundPort);
+    }
+
+    public void close() {
+        LOG.info("closing {}", getClass().getSimpleName());
+        BundleContext bundleContext = getBundleContext();
+        if (bundleContext != null) {
+            try {
+                bundleContext.removeBundleListener(bundleRefreshListener);
+            } catch (IllegalStateException e) {
+                LOG.debug("Bundle context is no longer valid", e);
+            }
+        }
+        scheduler.shutdownNow();
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close the listening socket", e);
+            }
+        }
+        for (TcpPeer peer : addressToPeer.values()) {
+            peer.close();
+        }
+        addressToPeer.clear();
+        queueNameToPeer.clear();
+        for (TcpConnection connection : inboundConnections) {
+            connection.close();
+        }
+        for (TcpHostedQueue queue : nameToHostedQueue.values()) {
+            queue.delete();
+        }
+        nameToHostedQueue.clear();
+        ioExecutor.shutdownNow();
+        ExecutorService executor = dispatchExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean createQueue(String queueName, String brokerIp) {
+        return createQueue(queueName, brokerIp, boundPort, null, null);
+    }
+
+    /**
+     * Creates a queue on the node at the given address, which is this node if the address is one of its own and the
+     * port is the one it listens on. Queues of other nodes are created as soon as they can be reached, with the given
+     * user and password, or with those of this node if the user is null. This only fails if queues of the same node
+     * were created with other credentials.
+     */
+    @Override
+    public boolean createQueue(String queueName, String mqBrokerIp, int mqPortNumber, String mqUser, String mqUserPwd) {
+        if (isLocal(mqBrokerIp, mqPortNumber)) {
+            nameToHostedQueue.computeIfAbsent(queueName, this::newHostedQueue);
+            LOG.info("Declared queue {}", queueName);
+            return true;
+        }
+        String address = mqBrokerIp + ":" + mqPortNumber;
+        TcpCredentials peerCredentials = mqUser != null ? new TcpCredentials(mqUser, mqUserPwd) : credentials;
+        TcpPeer peer = addressToPeer.computeIfAbsent(address, ignored -> new TcpPeer(mqBrokerIp, mqPortNumber,
+            nodeId, peerCredentials, ioExecutor, scheduler, reconnectIntervalMillis, maxUnackedMessages));
+        if (!peer.getCredentials().equals(peerCredentials)) {
+            LOG.error("Queue {} wasn't declared, the queues of node {} are used with other credentials", queueName,
+                address);
+            return false;
+        }
+        TcpPeer previousPeer = queueNameToPeer.put(queueName, peer);
+        if (previousPeer != null && previousPeer != peer) {
+            previousPeer.delete(queueName);
+        }
+        peer.declare(queueName);
+        LOG.info("Declared queue {} on node {}", queueName, address);
+        return true;
+    }
+
+    @Override
+    public void destroyQueue(String queueName) {
+        queueNameToPublishFailureListener.remove(queueName);
+        consumerTagToQueueName.values().removeIf(queueName::equals);
+        TcpHostedQueue hostedQueue = nameToHostedQueue.remove(queueName);
+        if (hostedQueue != null) {
+            hostedQueue.delete();
+            LOG.info("Deleted queue {}", queueName);
+            return;
+        }
+        TcpPeer peer = queueNameToPeer.remove(queueName);
+        if (peer != null) {
+            peer.delete(queueName);
+            LOG.info("Deleted queue {} of another node", queueName);
+            return;
+        }
+        LOG.warn("Cancelled deletion of queue {} because it doesn't exist", queueName);
+    }
+
+    @Override
+    public String attachHandler(String queueName, IGeneralFederationConsumer consumer) {
+        ExecutorService executor = dispatchExecutor;
+        if (executor == null) {
+            LOG.warn("AttachHandler failed - bus not started");
+            return null;
+        }
+        String consumerTag = "tcp-" + nextConsumerTag.incrementAndGet();
+        TcpHostedQueue hostedQueue = nameToHostedQueue.get(queueName);
+        if (hostedQueue != null) {
+            hostedQueue.attach(new HandlerDispatcher(consumerTag, consumer, codec, executor, sequence -> { }));
+            consumerTagToQueueName.put(consumerTag, queueName);
+            return consumerTag;
+        }
+        TcpPeer peer = queueNameToPeer.get(queueName);
+        if (peer != null && peer.subscribe(queueName, new HandlerDispatcher(consumerTag, consumer, codec, executor,
+            sequence -> peer.consumed(queueName, sequence)))) {
+            consumerTagToQueueName.put(consumerTag, queueName);
+            return consumerTag;
+        }
+        LOG.warn("AttachHandler failed - queue {} not found or it already has a handler of this node", queueName);
+        return null;
+    }
+
+    @Override
+    public void detachHandler(String queueName, String handlerTag) {
+        consumerTagToQueueName.remove(handlerTag);
+        TcpHostedQueue hostedQueue = nameToHostedQueue.get(queueName);
+        if (hostedQueue != null && hostedQueue.detach(handlerTag)) {
+            return;
+        }
+        TcpPeer peer = queueNameToPeer.get(queueName);
+        if (peer != null && peer.unsubscribe(queueName, handlerTag)) {
+            return;
+        }
+        LOG.warn("unknown queue {} or handler {}, couldn't detach handler", queueName, handlerTag);
+    }
+
+    @Override
+    public void sendMsg(AbstractFederationMessage msg, String queueName) {
+        LOG.trace("Sending msg to queue {}, msg {}", queueName, msg);
+        TcpHostedQueue hostedQueue = nameToHostedQueue.get(queueName);
+        TcpPeer peer = hostedQueue == null ? queueNameToPeer.get(queueName) : null;
+        if (hostedQueue == null && peer == null) {
+            // a broker silently drops messages to queues that don't exist
+            LOG.debug("Dropped message to unknown queue {}", queueName);
+            return;
+        }
+        byte[] body;
+        try {
+            body = codec.encode(msg);
+        } catch (RuntimeException e) {
+            // only this message is lost, the queue and the messages after it are fine
+            LOG.error("Failed to encode msg to queue {}, dropping it", queueName, e);
+            notifyPublishFailed(queueName, "encoding failed: " + e);
+            return;
+        }
+        if (hostedQueue != null) {
+            hostedQueue.send(body);
+            return;
+        }
+        if (!peer.send(queueName, body)) {
+            LOG.warn("Dropped message to queue {}, {} messages to it aren't acked yet", queueName,
+                maxUnackedMessages);
+            notifyPublishFailed(queueName, "too many unacked messages");
+        }
+    }
+
+    private void notifyPublishFailed(String queueName, String reason) {
+        IPublishFailureListener listener = queueNameToPublishFailureListener.get(queueName);
+        if (listener == null) {
+            return;
+        }
+        try {
+            // the sender must not fail because of a listener, the message is dropped either way
+            listener.publishFailed(queueName, 1, reason);
+        } catch (RuntimeException e) {
+            LOG.error("Publish failure listener of queue {} failed", queueName, e);
+        }
+    }
+
+    @Override
+    public void setPublishFailureListener(String queueName, IPublishFailureListener listener) {
+        if (listener == null) {
+            queueNameToPublishFailureListener.remove(queueName);
+        } else {
+            queueNameToPublishFailureListener.put(queueName, listener);
+        }
+    }
+
+    @Override
+    public void setPayloadCompression(String queueName, boolean compress) {
+        // the links between sites are not metered by a broker, messages are always sent as they are
+    }
+
+    /**
+     * Messages to a queue of another node are delayed once half of the allowed unacked messages are pending.
+     */
+    @Override
+    public boolean isBackpressured(String queueName) {
+        TcpPeer peer = queueNameToPeer.get(queueName);
+        return peer != null && peer.getUnackedCount(queueName) >= maxUnackedMessages / 2;
+    }
+
+    /**
+     * Drops all connections of this node as if they failed. Meant for tests of the resumption.
+     */
+    void dropConnections() {
+        for (TcpPeer peer : addressToPeer.values()) {
+            peer.dropConnection();
+        }
+        for (TcpConnection connection : inboundConnections) {
+            connection.close();
+        }
+    }
+
+    private TcpHostedQueue newHostedQueue(String queueName) {
+        return new TcpHostedQueue(queueName, deliveryWindow);
+    }
+
+    private boolean isLocal(String host, int port) {
+        if (port != boundPort) {
+            return false;
+        }
+        return hostToIsLocal.computeIfAbsent(host, TcpMessageBus::isLocalAddress);
+    }
+
+    private static boolean isLocalAddress(String host) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            return address.isAnyLocalAddress() || address.isLoopbackAddress()
+                || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            LOG.warn("Couldn't resolve {}, treating it as another node: {}", host, e.getMessage());
+            return false;
+        }
+    }
+
+    private void acceptLoop() {
+        ServerSocketChannel channel = serverChannel;
+        while (channel.isOpen()) {
+            try {
+                SocketChannel socketChannel = channel.accept();
+                TcpConnection connection = new TcpConnection(socketChannel);
+                inboundConnections.add(connection);
+                InboundHandler handler = new InboundHandler();
+                connection.start(handler, ioExecutor);
+                connection.send(TcpFrame.hello(nodeId, handler.challenge));
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    LOG.warn("Failed to accept a connection: {}", e.getMessage());
+                }
+            } catch (Throwable e) {
+                LOG.error("Failed to start a connection", e);
+            }
+        }
+    }
+
+    private void expireSubscribers() {
+        long disconnectedBefore = System.currentTimeMillis() - subscriberExpiryMillis;
+        for (TcpHostedQueue queue : nameToHostedQueue.values()) {
+            queue.expireSubscribers(disconnectedBefore);
+        }
+    }
+
+    private static BundleContext getBundleContext() {
+        Bundle bundle = FrameworkUtil.getBundle(TcpMessageBus.class);
+        return bundle != null ? bundle.getBundleContext() : null;
+    }
+
+    /**
+     * Serves a connection that another node opened to use the queues of this node. Nothing but the handshake is
+     * accepted until the other node answered the challenge.
+     */
+    private final class InboundHandler implements TcpConnection.FrameHandler {
+        private final byte[] challenge = TcpCredentials.newChallenge();
+        // set by the HELLO that starts the connection
+        private String helloNodeId;
+        // set once the other node answered the challenge
+        private String remoteNodeId;
+
+        @Override
+        public void frameReceived(TcpConnection connection, TcpFrame frame) throws IOException {
+            if (remoteNodeId == null) {
+                authenticate(connection, frame);
+                return;
+            }
+
+            TcpHostedQueue queue;
+            switch (frame.type) {
+                case TcpFrame.DECLARE:
+                    nameToHostedQueue.computeIfAbsent(frame.name, TcpMessageBus.this::newHostedQueue);
+                    break;
+                case TcpFrame.DELETE:
+                    queue = nameToHostedQueue.remove(frame.name);
+                    if (queue != null) {
+                        queue.delete();
+                        LOG.info("Node {} deleted queue {}", remoteNodeId, frame.name);
+                    }
+                    break;
+                case TcpFrame.SEND:
+                    queue = nameToHostedQueue.get(frame.name);
+                    if (queue != null) {
+                        queue.sendFrom(remoteNodeId, frame.sequence, frame.body);
+                    } else {
+                        LOG.debug("Dropped message from {} to unknown queue {}", remoteNodeId, frame.name);
+                    }
+                    // acked either way, a repetition wouldn't find the queue either
+                    connection.send(TcpFrame.of(TcpFrame.SEND_ACK, frame.name, frame.sequence));
+                    break;
+                case TcpFrame.SUBSCRIBE:
+                    queue = nameToHostedQueue.get(frame.name);
+                    if (queue != null) {
+                        queue.subscribe(remoteNodeId, connection, frame.sequence);
+                    } else {
+                        LOG.warn("Node {} subscribed to unknown queue {}", remoteNodeId, frame.name);
+                    }
+                    break;
+                case TcpFrame.UNSUBSCRIBE:
+                    queue = nameToHostedQueue.get(frame.name);
+                    if (queue != null) {
+                        queue.unsubscribe(remoteNodeId);
+                    }
+                    break;
+                case TcpFrame.DELIVER_ACK:
+                    queue = nameToHostedQueue.get(frame.name);
+                    if (queue != null) {
+                        queue.deliverAcked(remoteNodeId, frame.sequence);
+                    }
+                    break;
+                default:
+                    LOG.warn("Unexpected frame {} from node {}", frame, remoteNodeId);
+            }
+        }
+
+        private void authenticate(TcpConnection connection, TcpFrame frame) throws IOException {
+            TcpCredentials localCredentials = credentials;
+            if (frame.type == TcpFrame.HELLO && helloNodeId == null) {
+                helloNodeId = frame.name;
+                connection.send(TcpFrame.auth(localCredentials.getUser(),
+                    localCredentials.answer(frame.body, false)));
+                return;
+            }
+            if (frame.type == TcpFrame.AUTH && helloNodeId != null
+                && localCredentials.accepts(frame.name, challenge, frame.body, false)) {
+                remoteNodeId = helloNodeId;
+                LOG.info("Node {} connected from {}", remoteNodeId, connection.getRemoteAddress());
+                return;
+            }
+            LOG.error("Connection from {} failed to authenticate, closing it", connection.getRemoteAddress());
+            throw new IOException("Connection from " + connection.getRemoteAddress() + " failed to authenticate");
+        }
+
+        @Override
+        public void connectionClosed(TcpConnection connection) {
+            inboundConnections.remove(connection);
+            long now = System.currentTimeMillis();
+            for (TcpHostedQueue queue : nameToHostedQueue.values()) {
+                queue.disconnected(connection, now);
+            }
+            LOG.info("Node {} at {} disconnected", remoteNodeId, connection.getRemoteAddress());
+        }
+    }
+}
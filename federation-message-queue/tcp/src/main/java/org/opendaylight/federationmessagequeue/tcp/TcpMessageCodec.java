@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import akka.osgi.BundleDelegatingClassLoader;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.FederationKryoFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes the messages with Kryo. The message classes belong to bundles this bundle doesn't depend on, so they are
+ * resolved through a class loader that delegates to all the bundles, and registered with the fixed ids of
+ * {@link FederationKryoFactory}. Registration is required, since the messages come from other nodes: Kryo refuses to
+ * load a class that isn't registered, instead of instantiating whatever class a frame names.
+ */
+final class TcpMessageCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpMessageCodec.class);
+
+    private static final int INITIAL_BUFFER_BYTES = 4096;
+
+    private volatile KryoPool kryoPool;
+    private volatile List<String> registeredClassNames = Collections.emptyList();
+
+    /**
+     * Sets the classes to register besides the federation messages.
+     */
+    void setRegisteredClassNames(List<String> classNames) {
+        registeredClassNames = Collections.unmodifiableList(classNames);
+        invalidate();
+    }
+
+    byte[] encode(AbstractFederationMessage msg) {
+        Output output = new Output(INITIAL_BUFFER_BYTES, -1);
+        KryoPool pool = getKryoPool();
+        Kryo kryo = pool.borrow();
+        try {
+            kryo.writeClassAndObject(output, msg);
+        } finally {
+            pool.release(kryo);
+        }
+        return output.toBytes();
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @return The message, or null if the body isn't an encoded message.
+     */
+    AbstractFederationMessage decode(byte[] body) {
+        KryoPool pool = getKryoPool();
+        Kryo kryo = pool.borrow();
+        try {
+            Object readObject = kryo.readClassAndObject(new Input(body));
+            if (readObject instanceof AbstractFederationMessage) {
+                return (AbstractFederationMessage) readObject;
+            }
+            LOG.error("Received an object not of type AbstractFederationMessage, type was: {}",
+                readObject == null ? null : readObject.getClass().getName());
+            return null;
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    /**
+     * Drops the resolved classes, so the classes of refreshed bundles are resolved again.
+     */
+    void invalidate() {
+        kryoPool = null;
+    }
+
+    private KryoPool getKryoPool() {
+        KryoPool pool = kryoPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = kryoPool;
+                if (pool == null) {
+                    ClassLoader classLoader = createClassLoader();
+                    pool = new KryoPool.Builder(new FederationKryoFactory(classLoader, registeredClassNames, true))
+                        .softReferences().build();
+                    kryoPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static ClassLoader createClassLoader() {
+        Bundle bundle = FrameworkUtil.getBundle(TcpMessageCodec.class);
+        BundleContext bundleContext = bundle != null ? bundle.getBundleContext() : null;
+        if (bundleContext == null) {
+            // not running in OSGi
+            return TcpMessageCodec.class.getClassLoader();
+        }
+        return new BundleDelegatingClassLoader(bundleContext.getBundle(),
+            Thread.currentThread().getContextClassLoader());
+    }
+}
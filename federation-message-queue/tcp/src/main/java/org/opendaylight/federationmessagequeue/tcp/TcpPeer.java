@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queues of another node that this node uses, and the connection to that node. Messages sent to its queues are
+ * numbered and kept until the other node acks them, so after a reconnect the ones that weren't acked are sent again
+ * and the other node drops those it already has. Likewise the sequence of the last message received from
+ * each subscribed queue is remembered, and a new connection resumes the subscription after it.
+ *
+ * <p>The connection is opened when the first queue is declared and is reopened whenever it fails, for as long as the
+ * peer is open. It is only used once the other node proved that it has the credentials of the peer, and this node
+ * proves the same to it.
+ */
+@SuppressWarnings(value = { "checkstyle:illegalcatch" })
+final class TcpPeer implements TcpConnection.FrameHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpPeer.class);
+
+    private final String host;
+    private final int port;
+    private final String localNodeId;
+    private final TcpCredentials credentials;
+    private final ExecutorService ioExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final long reconnectIntervalMillis;
+    private final int connectTimeoutMillis;
+    private final int maxUnackedMessages;
+    // all guarded by this
+    private final Map<String, RemoteQueue> nameToQueue = new LinkedHashMap<>();
+    // queues deleted while disconnected, they are deleted on the other node once connected
+    private final Set<String> pendingDeletes = new LinkedHashSet<>();
+    // shared by all queues, so a queue that is deleted and declared again never reuses a sequence
+    private long nextSendSequence = 1;
+    private TcpConnection connection;
+    private boolean connecting = false;
+    // the challenge this node sent on the current connection
+    private byte[] challenge;
+    // set by the hello of the other node on the current connection, until it answered the challenge
+    private String helloNodeId;
+    // set once the other node answered the challenge on the current connection
+    private boolean ready = false;
+    private String remoteNodeId;
+    private boolean closed = false;
+
+    TcpPeer(String host, int port, String localNodeId, TcpCredentials credentials, ExecutorService ioExecutor,
+        ScheduledExecutorService scheduler, long reconnectIntervalMillis, int maxUnackedMessages) {
+        this.host = host;
+        this.port = port;
+        this.localNodeId = localNodeId;
+        this.credentials = credentials;
+        this.ioExecutor = ioExecutor;
+        this.scheduler = scheduler;
+        this.reconnectIntervalMillis = reconnectIntervalMillis;
+        this.connectTimeoutMillis = (int) Math.max(1000, reconnectIntervalMillis);
+        this.maxUnackedMessages = maxUnackedMessages;
+    }
+
+    TcpCredentials getCredentials() {
+        return credentials;
+    }
+
+    synchronized void declare(String queueName) {
+        if (nameToQueue.containsKey(queueName)) {
+            return;
+        }
+        nameToQueue.put(queueName, new RemoteQueue());
+        if (ready) {
+            connection.send(TcpFrame.of(TcpFrame.DECLARE, queueName));
+        }
+        connect();
+    }
+
+    synchronized void delete(String queueName) {
+        RemoteQueue queue = nameToQueue.remove(queueName);
+        if (queue != null && queue.dispatcher != null) {
+            queue.dispatcher.stop();
+        }
+        if (ready) {
+            connection.send(TcpFrame.of(TcpFrame.DELETE, queueName));
+        } else {
+            pendingDeletes.add(queueName);
+        }
+    }
+
+    /**
+     * Sends a message to a queue of the other node.
+     *
+     * @return false if too many messages to the queue aren't acked yet, in which case the message is dropped.
+     */
+    synchronized boolean send(String queueName, byte[] body) {
+        RemoteQueue queue = nameToQueue.get(queueName);
+        if (queue == null || queue.unacked.size() >= maxUnackedMessages) {
+            return false;
+        }
+        Unacked message = new Unacked(nextSendSequence++, body);
+        queue.unacked.add(message);
+        if (ready) {
+            connection.send(TcpFrame.of(TcpFrame.SEND, queueName, message.sequence, message.body));
+        }
+        return true;
+    }
+
+    synchronized int getUnackedCount(String queueName) {
+        RemoteQueue queue = nameToQueue.get(queueName);
+        return queue == null ? 0 : queue.unacked.size();
+    }
+
+    /**
+     * Subscribes the dispatcher to a queue of the other node.
+     *
+     * @return false if the queue isn't declared or already has a handler of this node.
+     */
+    synchronized boolean subscribe(String queueName, HandlerDispatcher dispatcher) {
+        RemoteQueue queue = nameToQueue.get(queueName);
+        if (queue == null || queue.dispatcher != null) {
+            return false;
+        }
+        queue.dispatcher = dispatcher;
+        queue.lastReceived = 0;
+        if (ready) {
+            connection.send(TcpFrame.of(TcpFrame.SUBSCRIBE, queueName, 0));
+        }
+        return true;
+    }
+
+    synchronized boolean unsubscribe(String queueName, String consumerTag) {
+        RemoteQueue queue = nameToQueue.get(queueName);
+        if (queue == null || queue.dispatcher == null || !queue.dispatcher.getConsumerTag().equals(consumerTag)) {
+            return false;
+        }
+        queue.dispatcher.stop();
+        queue.dispatcher = null;
+        if (ready) {
+            connection.send(TcpFrame.of(TcpFrame.UNSUBSCRIBE, queueName));
+        }
+        return true;
+    }
+
+    /**
+     * Acks the messages of a queue that were consumed up to the given sequence.
+     */
+    synchronized void consumed(String queueName, long sequence) {
+        if (ready && nameToQueue.containsKey(queueName)) {
+            connection.send(TcpFrame.of(TcpFrame.DELIVER_ACK, queueName, sequence));
+        }
+    }
+
+    void close() {
+        TcpConnection toClose;
+        synchronized (this) {
+            closed = true;
+            for (RemoteQueue queue : nameToQueue.values()) {
+                if (queue.dispatcher != null) {
+                    queue.dispatcher.stop();
+                }
+            }
+            nameToQueue.clear();
+            toClose = connection;
+        }
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
+
+    /**
+     * Closes the current connection as if it failed, so it is reopened. Meant for tests of the resumption.
+     */
+    void dropConnection() {
+        TcpConnection toClose;
+        synchronized (this) {
+            toClose = connection;
+        }
+        if (toClose != null) {
+            toClose.close();
+        }
+    }
+
+    @Override
+    public void frameReceived(TcpConnection conn, TcpFrame frame) throws IOException {
+        if (frame.type != TcpFrame.HELLO && frame.type != TcpFrame.AUTH && !isReady(conn)) {
+            throw new IOException("Node at " + host + ":" + port + " sent " + frame + " before it authenticated");
+        }
+        switch (frame.type) {
+            case TcpFrame.HELLO:
+                helloReceived(conn, frame.name, frame.body);
+                break;
+            case TcpFrame.AUTH:
+                authReceived(conn, frame.name, frame.body);
+                break;
+            case TcpFrame.SEND_ACK:
+                sendAcked(frame.name, frame.sequence);
+                break;
+            case TcpFrame.DELIVER:
+                delivered(frame.name, frame.sequence, frame.body);
+                break;
+            default:
+                LOG.warn("Unexpected frame {} from {}:{}", frame, host, port);
+        }
+    }
+
+    @Override
+    public void connectionClosed(TcpConnection conn) {
+        synchronized (this) {
+            if (conn != connection) {
+                return;
+            }
+            connection = null;
+            ready = false;
+            helloNodeId = null;
+            if (closed) {
+                return;
+            }
+        }
+        LOG.info("Connection to {}:{} was lost, reconnecting in {} ms", host, port, reconnectIntervalMillis);
+        scheduleConnect();
+    }
+
+    private synchronized boolean isReady(TcpConnection conn) {
+        return conn == connection && ready;
+    }
+
+    private synchronized void helloReceived(TcpConnection conn, String nodeId, byte[] remoteChallenge) {
+        if (conn != connection) {
+            return;
+        }
+        helloNodeId = nodeId;
+        conn.send(TcpFrame.auth(credentials.getUser(), credentials.answer(remoteChallenge, true)));
+    }
+
+    private synchronized void authReceived(TcpConnection conn, String user, byte[] answer) throws IOException {
+        if (conn != connection) {
+            return;
+        }
+        if (helloNodeId == null || ready || !credentials.accepts(user, challenge, answer, true)) {
+            LOG.error("Node at {}:{} failed to authenticate as user {}, retrying in {} ms", host, port, user,
+                reconnectIntervalMillis);
+            throw new IOException("Node at " + host + ":" + port + " failed to authenticate");
+        }
+        String nodeId = helloNodeId;
+        if (remoteNodeId != null && !remoteNodeId.equals(nodeId)) {
+            // a restarted node numbers its deliveries from the start again
+            LOG.info("Node {}:{} was restarted, its queues are declared again", host, port);
+            for (RemoteQueue queue : nameToQueue.values()) {
+                queue.lastReceived = 0;
+            }
+        }
+        remoteNodeId = nodeId;
+        ready = true;
+        for (String queueName : pendingDeletes) {
+            conn.send(TcpFrame.of(TcpFrame.DELETE, queueName));
+        }
+        pendingDeletes.clear();
+        for (Map.Entry<String, RemoteQueue> entry : nameToQueue.entrySet()) {
+            String queueName = entry.getKey();
+            RemoteQueue queue = entry.getValue();
+            conn.send(TcpFrame.of(TcpFrame.DECLARE, queueName));
+            if (queue.dispatcher != null) {
+                conn.send(TcpFrame.of(TcpFrame.SUBSCRIBE, queueName, queue.lastReceived));
+            }
+            for (Unacked message : queue.unacked) {
+                conn.send(TcpFrame.of(TcpFrame.SEND, queueName, message.sequence, message.body));
+            }
+        }
+        LOG.info("Connected to node {} at {}:{}", nodeId, host, port);
+    }
+
+    private synchronized void sendAcked(String queueName, long sequence) {
+        RemoteQueue queue = nameToQueue.get(queueName);
+        if (queue == null) {
+            return;
+        }
+        while (!queue.unacked.isEmpty() && queue.unacked.peekFirst().sequence <= sequence) {
+            queue.unacked.pollFirst();
+        }
+    }
+
+    private void delivered(String queueName, long sequence, byte[] body) {
+        HandlerDispatcher dispatcher;
+        synchronized (this) {
+            RemoteQueue queue = nameToQueue.get(queueName);
+            if (queue == null || queue.dispatcher == null || sequence <= queue.lastReceived) {
+                // a repetition after a reconnect, or for a handler that was detached meanwhile
+                return;
+            }
+            queue.lastReceived = sequence;
+            dispatcher = queue.dispatcher;
+        }
+        dispatcher.offer(sequence, body);
+    }
+
+    /*
+     * Opens the connection unless it is open or being opened.
+     */
+    private synchronized void connect() {
+        if (closed || connecting || connection != null) {
+            return;
+        }
+        connecting = true;
+        try {
+            ioExecutor.execute(this::doConnect);
+        } catch (RejectedExecutionException e) {
+            connecting = false;
+        }
+    }
+
+    private void scheduleConnect() {
+        try {
+            scheduler.schedule(this::connect, reconnectIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not reconnecting to {}:{}, the bus is closing", host, port);
+        }
+    }
+
+    private void doConnect() {
+        TcpConnection conn = null;
+        byte[] sentChallenge;
+        try {
+            SocketChannel socketChannel = SocketChannel.open();
+            try {
+                socketChannel.socket().connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                conn = new TcpConnection(socketChannel);
+            } catch (IOException e) {
+                socketChannel.close();
+                throw e;
+            }
+        } catch (Throwable e) {
+            LOG.warn("Failed to connect to {}:{}, retrying in {} ms: {}", host, port, reconnectIntervalMillis,
+                e.getMessage());
+        }
+        synchronized (this) {
+            connecting = false;
+            if (conn == null || closed) {
+                if (conn != null) {
+                    conn.close();
+                } else if (!closed) {
+                    scheduleConnect();
+                }
+                return;
+            }
+            connection = conn;
+            challenge = TcpCredentials.newChallenge();
+            sentChallenge = challenge;
+        }
+        conn.start(this, ioExecutor);
+        conn.send(TcpFrame.hello(localNodeId, sentChallenge));
+    }
+
+    private static final class RemoteQueue {
+        private final Deque<Unacked> unacked = new ArrayDeque<>();
+        private HandlerDispatcher dispatcher;
+        private long lastReceived = 0;
+    }
+
+    private static final class Unacked {
+        private final long sequence;
+        private final byte[] body;
+
+        Unacked(long sequence, byte[] body) {
+            this.sequence = sequence;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federationmessagequeue.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.messagequeue.AbstractFederationMessage;
+import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+
+public class TcpMessageBusTest {
+
+    private static final String LOOPBACK = "127.0.0.1";
+
+    private TcpMessageBus producerBus;
+    private TcpMessageBus consumerBus;
+
+    @Before
+    public void setUp() throws Exception {
+        producerBus = startBus();
+        consumerBus = startBus();
+    }
+
+    @After
+    public void tearDown() {
+        consumerBus.close();
+        producerBus.close();
+    }
+
+    @Test
+    public void messagesOfRemoteQueueArriveInOrder() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(1000);
+        subscribeRemotely("dynamic", consumer);
+
+        for (int i = 0; i < 1000; i++) {
+            producerBus.sendMsg(new TestMessage(i), "dynamic");
+        }
+
+        assertReceivedInOrder(consumer, 1000);
+    }
+
+    @Test
+    public void messagesToRemoteQueueArriveInOrder() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(1000);
+        assertTrue(producerBus.createQueue("control", LOOPBACK, producerBus.getListenPort(), null, null));
+        assertNotNull(producerBus.attachHandler("control", consumer));
+        assertTrue(consumerBus.createQueue("control", LOOPBACK, producerBus.getListenPort(), null, null));
+
+        for (int i = 0; i < 1000; i++) {
+            consumerBus.sendMsg(new TestMessage(i), "control");
+        }
+
+        assertReceivedInOrder(consumer, 1000);
+    }
+
+    @Test
+    public void deliveriesResumeAfterConnectionLoss() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(2000);
+        subscribeRemotely("dynamic", consumer);
+
+        for (int i = 0; i < 1000; i++) {
+            producerBus.sendMsg(new TestMessage(i), "dynamic");
+        }
+        producerBus.dropConnections();
+        consumerBus.dropConnections();
+        for (int i = 1000; i < 2000; i++) {
+            producerBus.sendMsg(new TestMessage(i), "dynamic");
+        }
+
+        assertReceivedInOrder(consumer, 2000);
+    }
+
+    @Test
+    public void sendsResumeAfterConnectionLoss() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(2000);
+        assertTrue(producerBus.createQueue("control", LOOPBACK, producerBus.getListenPort(), null, null));
+        assertNotNull(producerBus.attachHandler("control", consumer));
+        assertTrue(consumerBus.createQueue("control", LOOPBACK, producerBus.getListenPort(), null, null));
+
+        for (int i = 0; i < 1000; i++) {
+            consumerBus.sendMsg(new TestMessage(i), "control");
+        }
+        consumerBus.dropConnections();
+        for (int i = 1000; i < 2000; i++) {
+            consumerBus.sendMsg(new TestMessage(i), "control");
+        }
+
+        assertReceivedInOrder(consumer, 2000);
+    }
+
+    @Test
+    public void nodeWithWrongPasswordCanNotSend() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(1);
+        assertTrue(producerBus.createQueue("control", LOOPBACK, producerBus.getListenPort(), null, null));
+        assertNotNull(producerBus.attachHandler("control", consumer));
+        assertTrue(consumerBus.createQueue("control", LOOPBACK, producerBus.getListenPort(), "guest", "wrong"));
+
+        consumerBus.sendMsg(new TestMessage(0), "control");
+
+        assertFalse(consumer.done.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void queuesOfNodeCanNotBeUsedWithOtherCredentials() {
+        assertTrue(consumerBus.createQueue("first", LOOPBACK, producerBus.getListenPort(), "guest", "guest"));
+        assertFalse(consumerBus.createQueue("second", LOOPBACK, producerBus.getListenPort(), "guest", "other"));
+    }
+
+    @Test
+    public void unregisteredClassIsNotSent() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer(1);
+        subscribeRemotely("dynamic", consumer);
+        List<String> failures = new ArrayList<>();
+        producerBus.setPublishFailureListener("dynamic", (queueName, count, reason) -> failures.add(reason));
+
+        producerBus.sendMsg(new UnregisteredMessage(), "dynamic");
+        producerBus.sendMsg(new TestMessage(0), "dynamic");
+
+        assertReceivedInOrder(consumer, 1);
+        assertEquals(1, failures.size());
+    }
+
+    private static TcpMessageBus startBus() throws Exception {
+        TcpMessageBus bus = new TcpMessageBus();
+        bus.setListenAddress(LOOPBACK);
+        bus.setListenPort(0);
+        bus.setReconnectIntervalMillis(50);
+        bus.setRegisteredClasses(TestMessage.class.getName());
+        bus.init();
+        return bus;
+    }
+
+    private void subscribeRemotely(String queueName, RecordingConsumer consumer) throws Exception {
+        // like a consumer site, which creates the queue on the producing site and attaches to it from afar
+        assertTrue(consumerBus.createQueue(queueName, LOOPBACK, producerBus.getListenPort(), null, null));
+        assertNotNull(consumerBus.attachHandler(queueName, consumer));
+        assertTrue(producerBus.createQueue(queueName, LOOPBACK, producerBus.getListenPort(), null, null));
+    }
+
+    private static void assertReceivedInOrder(RecordingConsumer consumer, int count) throws InterruptedException {
+        assertTrue("timed out, got " + consumer.received.size(), consumer.done.await(10, TimeUnit.SECONDS));
+        // nothing more, such as a repetition, may follow
+        Thread.sleep(200);
+        synchronized (consumer.received) {
+            assertEquals(count, consumer.received.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, consumer.received.get(i).intValue());
+            }
+        }
+    }
+
+    private static final class RecordingConsumer implements IGeneralFederationConsumer {
+        private final List<Integer> received = new ArrayList<>();
+        private final CountDownLatch done;
+
+        RecordingConsumer(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void consumeMsg(AbstractFederationMessage msg) {
+            synchronized (received) {
+                received.add(((TestMessage) msg).number);
+            }
+            done.countDown();
+        }
+    }
+
+    private static final class TestMessage extends AbstractFederationMessage {
+        private int number;
+
+        TestMessage(int number) {
+            this.number = number;
+        }
+    }
+
+    private static final class UnregisteredMessage extends AbstractFederationMessage {
+    }
+}
@@ -77,4 +77,15 @@ public interface IFederationPluginEgress {
      * @return A {@link CompletionStage} indicating the abort() work has completed.
      */
     CompletionStage<Void> abort();
+
+    /**
+     * Invoked when the message bus applies backpressure on the queue of this plugin, e.g. because the broker is short
+     * of resources, and again when it is released. While it is applied, messages are still accepted by
+     * {@link IFederationProducerMgr} publishMessage(), but they are delayed and may block the publishing thread, so
+     * the plugin should coalesce its updates or pause where it can. The default implementation ignores it.
+     *
+     * @param applied true when backpressure is applied, false when it is released.
+     */
+    default void backpressureChanged(boolean applied) {
+    }
 }
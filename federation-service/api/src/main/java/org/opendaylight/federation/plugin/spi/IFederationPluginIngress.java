@@ -7,6 +7,8 @@
  */
 package org.opendaylight.federation.plugin.spi;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletionStage;
 import org.opendaylight.federation.service.api.IFederationProducerMgr;
 import org.opendaylight.federation.service.common.api.EntityFederationMessage;
@@ -41,7 +43,8 @@ public interface IFederationPluginIngress {
 
     /**
      * Invoked by the federation service when a message was received from a remote site. Because applications may be
-     * order sensitive, this method will never be invoked concurrently.
+     * order sensitive, this method will never be invoked concurrently, unless the plugin supports partitioned
+     * ingress, see {@link #supportsPartitionedIngress()}.
      *
      * @param msg The message from the remote site containing a single {@link DataObject}.
      */
@@ -64,6 +67,33 @@ public interface IFederationPluginIngress {
      */
     String getPluginType();
 
+    /**
+     * Whether the subscriptions of the plugin may be spread over several dynamic queues when the local site is
+     * configured with dynamicQueuePartitions. The messages of one entity, as identified by the key of its
+     * InstanceIdentifier, always go through the same queue and are consumed in order, but messages of different
+     * entities are consumed concurrently by {@link #consumeMsg}. {@link #beginFullSync} is still invoked before any
+     * message and {@link #endFullSync} after all the messages of the Full Sync stage, but messages of entities that
+     * changed meanwhile may be consumed before {@link #endFullSync}. The default is false, which keeps one queue.
+     *
+     * @return true if {@link #consumeMsg} may be invoked concurrently for different entities.
+     */
+    default boolean supportsPartitionedIngress() {
+        return false;
+    }
+
+    /**
+     * The entities the plugin wants to receive, as bindings in the style of a topic exchange, which are matched
+     * against the datastore type and the binding interface of each entity, e.g. "CONFIGURATION.#.ElanInterface" or
+     * "*.org.opendaylight.yang.gen.v1.#". The * stands for exactly one dot separated word and # for any number of
+     * words. The producer site only sends the entities that match one of the bindings, so the others never cross the
+     * network. The default is no bindings, which receives all the entities.
+     *
+     * @return The bindings, or an empty list to receive all the entities.
+     */
+    default List<String> getBindings() {
+        return Collections.emptyList();
+    }
+
     /**
      * Can be invoked by the federation service in order to cause the plugin to stop processing. After the returned
      * {@link CompletionStage} is ready, it is expected that the plugin will not agree to process any further messages.
@@ -30,6 +30,8 @@ public interface IFederationProducerMgr {
      *            as part of the {@link IPluginFactory#createEgressPlugin(Object, String, String)}.
      * @param contextId The context id of the remote site which was precreted by the federation service, and passed as
      *            part of the {@link IPluginFactory#createEgressPlugin(Object, String, String)}.
+     * @throws IllegalArgumentException if the message bus serializes messages and the entity can't be encoded, in
+     *            which case nothing was sent.
      */
     void publishMessage(EntityFederationMessage<? extends DataObject> msg, String queueName,
         String contextId);
@@ -45,6 +47,15 @@ public interface IFederationProducerMgr {
      */
     void attachPluginFactory(String pluginType, IPluginFactory factory);
 
+    /**
+     * Lets a {@link IFederationPluginEgress} check whether messages published to its remote site are currently
+     * delayed by the message bus, see {@link IFederationPluginEgress#backpressureChanged(boolean)}.
+     *
+     * @param contextId The context id of the remote site, as given to the plugin.
+     * @return true if backpressure is applied.
+     */
+    boolean isBackpressured(String contextId);
+
     /**
      * Detaches a plugin factory.
      *
@@ -26,6 +26,11 @@ public enum FederationCounters {
     steady_event_to_queue,
     steady_event_from_queue,
     msg_published,
+    msg_publish_failed,
+    msg_filtered,
+    msg_not_encoded,
+    batch_sent,
+    backpressure_applied,
     start_full_sync_msg_sent,
     end_full_sync_msg_sent,
     full_sync_failed_msg_sent,
@@ -7,6 +7,9 @@
  */
 package org.opendaylight.federation.service.api.federationutil;
 
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier.IdentifiableItem;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier.PathArgument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +23,65 @@ public class FederationUtils {
         return remoteIp + "_" + localIp + "_" + System.currentTimeMillis() + FederationConstants.DYNAMIC_QUEUE_SUFFIX;
     }
 
+    /**
+     * The name of a partition of a dynamic queue. The first partition is the dynamic queue itself, so a subscription
+     * that isn't partitioned uses the same queue as always.
+     */
+    public static String createPartitionQueueName(String dynamicQueueName, int partition) {
+        return partition == 0 ? dynamicQueueName : dynamicQueueName + "_" + partition;
+    }
+
+    /**
+     * A hash of the path of an entity, made of the names of the types and the string forms of the keys along it,
+     * so unlike {@link InstanceIdentifier#hashCode()} it doesn't change between runs of the producer.
+     */
+    public static int stableKeyHash(InstanceIdentifier<?> instanceIdentifier) {
+        int hash = 1;
+        for (PathArgument pathArgument : instanceIdentifier.getPathArguments()) {
+            hash = 31 * hash + pathArgument.getType().getName().hashCode();
+            if (pathArgument instanceof IdentifiableItem) {
+                hash = 31 * hash + String.valueOf(((IdentifiableItem<?, ?>) pathArgument).getKey()).hashCode();
+            }
+        }
+        return hash;
+    }
+
+    public static int partitionOf(int keyHash, int partitions) {
+        return partitions == 1 ? 0 : Math.floorMod(keyHash, partitions);
+    }
+
+    /**
+     * The routing key of an entity, its datastore type and the name of its binding interface, separated by dots.
+     */
+    public static String createRoutingKey(String dataStoreType, Class<?> bindingInterface) {
+        return dataStoreType + "." + bindingInterface.getName();
+    }
+
+    /**
+     * Matches a routing key against a binding the way a topic exchange does: the dot separated words must be equal,
+     * except that * stands for exactly one word and # for zero or more words.
+     */
+    public static boolean routingKeyMatches(String binding, String routingKey) {
+        return wordsMatch(binding.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+    }
+
+    private static boolean wordsMatch(String[] binding, int bindingIndex, String[] words, int wordIndex) {
+        if (bindingIndex == binding.length) {
+            return wordIndex == words.length;
+        }
+        if ("#".equals(binding[bindingIndex])) {
+            for (int i = wordIndex; i <= words.length; i++) {
+                if (wordsMatch(binding, bindingIndex + 1, words, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return wordIndex < words.length
+            && ("*".equals(binding[bindingIndex]) || binding[bindingIndex].equals(words[wordIndex]))
+            && wordsMatch(binding, bindingIndex + 1, words, wordIndex + 1);
+    }
+
     public static String createControlQueueName(String localIp) {
         return localIp + "_" + FederationConstants.CONTROL_QUEUE;
     }
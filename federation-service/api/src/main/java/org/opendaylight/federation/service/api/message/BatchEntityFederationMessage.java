@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.api.message;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * Carries a contiguous range of {@link EntityFederationMessage} in one message. The first payload has the sequence
+ * id of this message, and each following payload has the next sequence id, so the batch is equivalent to sending
+ * each payload in its own {@link WrapperEntityFederationMessage}.
+ */
+@DefaultSerializer(FederationMessageSerializers.BatchEntityMessageSerializer.class)
+public class BatchEntityFederationMessage extends SequencedFederationMessage {
+
+    private final List<EntityFederationMessage<? extends DataObject>> payloads;
+
+    public BatchEntityFederationMessage(long firstSequenceId,
+        List<EntityFederationMessage<? extends DataObject>> payloads) {
+        Preconditions.checkArgument(!payloads.isEmpty(), "A batch must contain at least one message");
+        this.sequenceId = firstSequenceId;
+        this.payloads = new ArrayList<>(payloads);
+    }
+
+    public List<EntityFederationMessage<? extends DataObject>> getPayloads() {
+        return payloads;
+    }
+
+    @Override
+    public long getLastSequenceId() {
+        return sequenceId + payloads.size() - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchEntityFederationMessage [sequenceId=" + sequenceId + ", lastSequenceId=" + getLastSequenceId()
+            + ", payloads=" + payloads + "]";
+    }
+}
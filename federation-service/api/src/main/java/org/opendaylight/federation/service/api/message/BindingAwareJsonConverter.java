@@ -7,12 +7,24 @@
  */
 package org.opendaylight.federation.service.api.message;
 
-import com.google.common.collect.FluentIterable;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
 import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import javassist.ClassPool;
 import org.opendaylight.mdsal.binding.generator.impl.ModuleInfoBackedContext;
 import org.opendaylight.mdsal.binding.generator.util.BindingRuntimeContext;
@@ -21,7 +33,9 @@ import org.opendaylight.yangtools.binding.data.codec.gen.impl.StreamWriterGenera
 import org.opendaylight.yangtools.binding.data.codec.impl.BindingNormalizedNodeCodecRegistry;
 import org.opendaylight.yangtools.yang.binding.BindingStreamEventWriter;
 import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.DataObjectSerializer;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier.PathArgument;
 import org.opendaylight.yangtools.yang.binding.YangModuleInfo;
 import org.opendaylight.yangtools.yang.binding.util.BindingReflections;
 import org.opendaylight.yangtools.yang.common.QName;
@@ -47,6 +61,11 @@ public class BindingAwareJsonConverter {
     private static SchemaContext context;
     private static BindingRuntimeContext bindingContext;
     private static BindingNormalizedNodeCodecRegistry codecRegistry;
+    // built once per schema context, the factory caches the codecs of the leaves it has seen
+    private static JSONCodecFactory codecFactory;
+    private static final int PATH_CODECS_CACHE_SIZE = 1024;
+    // keyed by the types along the path of an entity, its keys don't matter
+    private static LoadingCache<List<Class<? extends DataObject>>, PathCodec> pathCodecs;
 
     /**
      * Before DTOs can be converted to JSON and back, this util must be initialized with all the possible entities that
@@ -65,6 +84,9 @@ public class BindingAwareJsonConverter {
             StreamWriterGenerator.create(JavassistUtils.forClassPool(ClassPool.getDefault())));
         bindingStreamCodecs.onBindingRuntimeContextUpdated(bindingContext);
         codecRegistry = bindingStreamCodecs;
+        codecFactory = JSONCodecFactory.create(context);
+        pathCodecs = CacheBuilder.newBuilder().maximumSize(PATH_CODECS_CACHE_SIZE)
+            .build(CacheLoader.from(BindingAwareJsonConverter::createPathCodec));
     }
 
     /**
@@ -100,35 +122,85 @@ public class BindingAwareJsonConverter {
             return null;
         }
 
-        final SchemaPath scPath = SchemaPath.create(FluentIterable.from(path.getPathArguments())
-            .transform(input -> BindingReflections.findQName(input.getType())), true);
-
         final Writer writer = new StringWriter();
+        writeJson(path, object, pretty, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Converts a {@link DataObject} to JSON in UTF-8, like {@link #jsonStringFromDataObject(InstanceIdentifier,
+     * DataObject)} but without the string in between.
+     *
+     * @param path {@literal InstanceIdentifier<?>}
+     * @param object DataObject
+     * @return The UTF-8 bytes of the JSON
+     */
+    public static byte[] jsonBytesFromDataObject(final InstanceIdentifier<?> path, final DataObject object) {
+        if (object == null) {
+            return null;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        writeJson(path, object, false, writer);
+        try {
+            writer.flush();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeJson(final InstanceIdentifier<?> path, final DataObject object, final boolean pretty,
+            final Writer writer) {
+        final List<Class<? extends DataObject>> wildcard = new ArrayList<>();
+        for (final PathArgument pathArgument : path.getPathArguments()) {
+            wildcard.add(pathArgument.getType());
+        }
+        final PathCodec pathCodec = pathCodecs.getUnchecked(wildcard);
+
         final NormalizedNodeStreamWriter domWriter;
         if (pretty) {
-            domWriter = JSONNormalizedNodeStreamWriter.createExclusiveWriter(JSONCodecFactory.create(context),
-                scPath.getParent(), scPath.getLastComponent().getNamespace(),
-                JsonWriterFactory.createJsonWriter(writer, 2));
+            domWriter = JSONNormalizedNodeStreamWriter.createExclusiveWriter(codecFactory, pathCodec.parentPath,
+                pathCodec.namespace, JsonWriterFactory.createJsonWriter(writer, 2));
         } else {
-            domWriter = JSONNormalizedNodeStreamWriter.createExclusiveWriter(JSONCodecFactory.create(context),
-                scPath.getParent(), scPath.getLastComponent().getNamespace(),
-                JsonWriterFactory.createJsonWriter(writer));
+            domWriter = JSONNormalizedNodeStreamWriter.createExclusiveWriter(codecFactory, pathCodec.parentPath,
+                pathCodec.namespace, JsonWriterFactory.createJsonWriter(writer));
         }
         final BindingStreamEventWriter bindingWriter = codecRegistry.newWriter(path, domWriter);
 
         try {
-            codecRegistry.getSerializer(path.getTargetType()).serialize(object, bindingWriter);
+            pathCodec.serializer.serialize(object, bindingWriter);
         } catch (final IOException e) {
             throw new IllegalStateException(e);
         }
-        return writer.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static NormalizedNode<?, ?> normalizedNodeFromDataObject(final InstanceIdentifier<?> path,
+            final DataObject object) {
+        return codecRegistry.toNormalizedNode((InstanceIdentifier<DataObject>) path, object).getValue();
     }
 
     public static NormalizedNode<?, ?> normalizedNodeFromJsonString(final String inputJson) {
+        return normalizedNodeFromJson(new JsonReader(new StringReader(inputJson)));
+    }
+
+    /**
+     * Parses JSON in UTF-8 straight from the bytes, which are decoded a chunk at a time rather than into a string
+     * first.
+     */
+    public static NormalizedNode<?, ?> normalizedNodeFromJsonBytes(final byte[] bytes, final int offset,
+            final int length) {
+        return normalizedNodeFromJson(new JsonReader(
+            new InputStreamReader(new ByteArrayInputStream(bytes, offset, length), StandardCharsets.UTF_8)));
+    }
+
+    private static NormalizedNode<?, ?> normalizedNodeFromJson(final JsonReader reader) {
         final NormalizedNodeResult result = new NormalizedNodeResult();
         final NormalizedNodeStreamWriter streamWriter = ImmutableNormalizedNodeStreamWriter.from(result);
         final JsonParserStream jsonParser = JsonParserStream.create(streamWriter, context);
-        jsonParser.parse(new JsonReader(new StringReader(inputJson)));
+        jsonParser.parse(reader);
         final NormalizedNode<?, ?> transformedInput = result.getResult();
         return transformedInput;
     }
@@ -136,4 +208,30 @@ public class BindingAwareJsonConverter {
     public static DataObject dataObjectFromNormalizedNode(final QName qname, final NormalizedNode<?, ?> nn) {
         return codecRegistry.fromNormalizedNode(YangInstanceIdentifier.of(qname), nn).getValue();
     }
+
+    @VisibleForTesting
+    static long cachedPathCodecs() {
+        return pathCodecs.size();
+    }
+
+    private static PathCodec createPathCodec(final List<Class<? extends DataObject>> wildcard) {
+        final SchemaPath schemaPath = SchemaPath.create(Lists.transform(wildcard, BindingReflections::findQName), true);
+        return new PathCodec(schemaPath.getParent(), schemaPath.getLastComponent().getNamespace(),
+            codecRegistry.getSerializer(wildcard.get(wildcard.size() - 1)));
+    }
+
+    /**
+     * What writing the entities of one path takes, apart from the entities themselves.
+     */
+    private static final class PathCodec {
+        private final SchemaPath parentPath;
+        private final URI namespace;
+        private final DataObjectSerializer serializer;
+
+        PathCodec(final SchemaPath parentPath, final URI namespace, final DataObjectSerializer serializer) {
+            this.parentPath = parentPath;
+            this.namespace = namespace;
+            this.serializer = serializer;
+        }
+    }
 }
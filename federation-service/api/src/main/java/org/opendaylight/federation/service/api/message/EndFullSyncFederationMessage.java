@@ -7,9 +7,12 @@
  */
 package org.opendaylight.federation.service.api.message;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
+
 /**
  * Message indicating that the Full Sync stage has ended.
  */
+@DefaultSerializer(FederationMessageSerializers.EndFullSyncMessageSerializer.class)
 public class EndFullSyncFederationMessage extends SequencedFederationMessage {
 
     public EndFullSyncFederationMessage(long sequenceId) {
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.api.message;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * Hand written Kryo serializers of the federation messages. Compared to Kryo's field serializer they don't write
+ * field names or class names of known types, numbers go as varints, and strings that repeat, such as the datastore
+ * type or the originator of entity messages, go as small codes. The serializers are bound to the message classes by
+ * {@link com.esotericsoftware.kryo.DefaultSerializer} annotations, and are part of the wire format, which must be
+ * identical on all sites.
+ */
+public final class FederationMessageSerializers {
+
+    /*
+     * Values that are written as a fixed code. Append only, the codes are part of the wire format.
+     */
+    private static final List<String> WELL_KNOWN_STRINGS = Collections.unmodifiableList(Arrays.asList(
+        "CONFIGURATION", "OPERATIONAL", "WRITE", "SUBTREE_MODIFIED", "DELETE"));
+
+    private static final int NULL_CODE = 0;
+    private static final int LITERAL_CODE = 1;
+    private static final int FIRST_WELL_KNOWN_CODE = 2;
+    private static final int FIRST_DICTIONARY_CODE = FIRST_WELL_KNOWN_CODE + WELL_KNOWN_STRINGS.size();
+
+    private static final Object WRITE_DICTIONARY_KEY = new Object();
+    private static final Object READ_DICTIONARY_KEY = new Object();
+    private static final Object INPUT_CLASSES_KEY = new Object();
+
+    private FederationMessageSerializers() {
+    }
+
+    /**
+     * Writes a string that is expected to repeat. The first occurrence within one top level object, e.g. a batch of
+     * entity messages, is written in full and later ones as a reference to it. Kryo clears its graph context, which
+     * holds the dictionary, after each top level object, so both sides agree on the dictionary without sharing any
+     * state beyond the message.
+     */
+    public static void writeDictionaryString(Kryo kryo, Output output, String value) {
+        if (value == null) {
+            output.writeVarInt(NULL_CODE, true);
+            return;
+        }
+        int wellKnown = WELL_KNOWN_STRINGS.indexOf(value);
+        if (wellKnown >= 0) {
+            output.writeVarInt(FIRST_WELL_KNOWN_CODE + wellKnown, true);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        ObjectMap<Object, Object> graphContext = kryo.getGraphContext();
+        @SuppressWarnings("unchecked")
+        Map<String, Integer> dictionary = (Map<String, Integer>) graphContext.get(WRITE_DICTIONARY_KEY);
+        if (dictionary == null) {
+            dictionary = new HashMap<>();
+            graphContext.put(WRITE_DICTIONARY_KEY, dictionary);
+        }
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            output.writeVarInt(FIRST_DICTIONARY_CODE + index, true);
+            return;
+        }
+        dictionary.put(value, dictionary.size());
+        output.writeVarInt(LITERAL_CODE, true);
+        output.writeString(value);
+    }
+
+    public static String readDictionaryString(Kryo kryo, Input input) {
+        int code = input.readVarInt(true);
+        if (code == NULL_CODE) {
+            return null;
+        }
+        if (code >= FIRST_WELL_KNOWN_CODE && code < FIRST_DICTIONARY_CODE) {
+            return WELL_KNOWN_STRINGS.get(code - FIRST_WELL_KNOWN_CODE);
+        }
+        @SuppressWarnings("unchecked")
+        ObjectMap<Object, Object> graphContext = kryo.getGraphContext();
+        @SuppressWarnings("unchecked")
+        List<String> dictionary = (List<String>) graphContext.get(READ_DICTIONARY_KEY);
+        if (dictionary == null) {
+            dictionary = new ArrayList<>();
+            graphContext.put(READ_DICTIONARY_KEY, dictionary);
+        }
+        if (code == LITERAL_CODE) {
+            String value = input.readString();
+            dictionary.add(value);
+            return value;
+        }
+        return dictionary.get(code - FIRST_DICTIONARY_CODE);
+    }
+
+    /**
+     * Writes the class of the input of an entity message by name, as a dictionary string. Unlike a class written by
+     * Kryo it needs no registration, so buses may require registration of all the other classes.
+     */
+    public static void writeInputClass(Kryo kryo, Output output, Class<? extends DataObject> inputClass) {
+        writeDictionaryString(kryo, output, inputClass != null ? inputClass.getName() : null);
+    }
+
+    /**
+     * Reads the class of the input of an entity message. The class is loaded without being initialized and must be a
+     * {@link DataObject}, so a peer can't have any other class loaded. Resolved classes are kept in the context of
+     * the Kryo instance, which outlives the messages.
+     *
+     * @throws KryoException if the class can't be found or isn't a {@link DataObject}.
+     */
+    public static Class<? extends DataObject> readInputClass(Kryo kryo, Input input) {
+        String className = readDictionaryString(kryo, input);
+        if (className == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        ObjectMap<Object, Object> context = kryo.getContext();
+        @SuppressWarnings("unchecked")
+        Map<String, Class<? extends DataObject>> inputClasses =
+            (Map<String, Class<? extends DataObject>>) context.get(INPUT_CLASSES_KEY);
+        if (inputClasses == null) {
+            inputClasses = new HashMap<>();
+            context.put(INPUT_CLASSES_KEY, inputClasses);
+        }
+        Class<? extends DataObject> inputClass = inputClasses.get(className);
+        if (inputClass == null) {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(className, false, kryo.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError e) {
+                throw new KryoException("Unable to find input class: " + className, e);
+            }
+            if (!DataObject.class.isAssignableFrom(clazz)) {
+                throw new KryoException("Input class " + className + " is not a DataObject");
+            }
+            inputClass = clazz.asSubclass(DataObject.class);
+            inputClasses.put(className, inputClass);
+        }
+        return inputClass;
+    }
+
+    public static class WrapperEntityMessageSerializer extends Serializer<WrapperEntityFederationMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, WrapperEntityFederationMessage msg) {
+            output.writeVarLong(msg.getSequenceId(), true);
+            kryo.writeClassAndObject(output, msg.getPayload());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public WrapperEntityFederationMessage read(Kryo kryo, Input input,
+            Class<WrapperEntityFederationMessage> type) {
+            long sequenceId = input.readVarLong(true);
+            EntityFederationMessage<? extends DataObject> payload =
+                (EntityFederationMessage<? extends DataObject>) kryo.readClassAndObject(input);
+            return (WrapperEntityFederationMessage) new WrapperEntityFederationMessage(payload)
+                .setSequenceId(sequenceId);
+        }
+    }
+
+    public static class BatchEntityMessageSerializer extends Serializer<BatchEntityFederationMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, BatchEntityFederationMessage msg) {
+            output.writeVarLong(msg.getSequenceId(), true);
+            List<EntityFederationMessage<? extends DataObject>> payloads = msg.getPayloads();
+            output.writeVarInt(payloads.size(), true);
+            for (EntityFederationMessage<? extends DataObject> payload : payloads) {
+                kryo.writeClassAndObject(output, payload);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public BatchEntityFederationMessage read(Kryo kryo, Input input, Class<BatchEntityFederationMessage> type) {
+            long firstSequenceId = input.readVarLong(true);
+            int size = input.readVarInt(true);
+            List<EntityFederationMessage<? extends DataObject>> payloads = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                payloads.add((EntityFederationMessage<? extends DataObject>) kryo.readClassAndObject(input));
+            }
+            return new BatchEntityFederationMessage(firstSequenceId, payloads);
+        }
+    }
+
+    public static class SubscribeMessageSerializer extends Serializer<SubscribeMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, SubscribeMessage msg) {
+            output.writeString(msg.getDynamicQueueName());
+            output.writeString(msg.getPluginType());
+            kryo.writeClassAndObject(output, msg.getPayload());
+            output.writeString(msg.getSubscriberIp());
+            output.writeString(msg.getContextId());
+            output.writeBoolean(msg.isRequestMutualSubscription());
+            output.writeBoolean(msg.isAcceptsCompressedPayload());
+            output.writeVarInt(msg.getPartitions(), true);
+            output.writeVarInt(msg.getBindings().size(), true);
+            for (String binding : msg.getBindings()) {
+                output.writeString(binding);
+            }
+            output.writeByte(msg.getPayloadEncoding().ordinal());
+        }
+
+        @Override
+        public SubscribeMessage read(Kryo kryo, Input input, Class<SubscribeMessage> type) {
+            String dynamicQueueName = input.readString();
+            String pluginType = input.readString();
+            Object payload = kryo.readClassAndObject(input);
+            String subscriberIp = input.readString();
+            String contextId = input.readString();
+            boolean requestMutualSubscription = input.readBoolean();
+            boolean acceptsCompressedPayload = input.readBoolean();
+            int partitions = input.readVarInt(true);
+            int bindingCount = input.readVarInt(true);
+            List<String> bindings = new ArrayList<>(bindingCount);
+            for (int i = 0; i < bindingCount; i++) {
+                bindings.add(input.readString());
+            }
+            PayloadEncoding payloadEncoding = PayloadEncoding.forOrdinal(input.readByte());
+            return new SubscribeMessage(dynamicQueueName, pluginType, payload, subscriberIp, contextId,
+                requestMutualSubscription, acceptsCompressedPayload, partitions, bindings, payloadEncoding);
+        }
+    }
+
+    public static class UnsubscribeMessageSerializer extends Serializer<UnsubscribeMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, UnsubscribeMessage msg) {
+            output.writeString(msg.getDynamicQueueName());
+            output.writeString(msg.getPluginType());
+            output.writeString(msg.getContextId());
+            kryo.writeClassAndObject(output, msg.getPayload());
+        }
+
+        @Override
+        public UnsubscribeMessage read(Kryo kryo, Input input, Class<UnsubscribeMessage> type) {
+            String dynamicQueueName = input.readString();
+            String pluginType = input.readString();
+            String contextId = input.readString();
+            Object payload = kryo.readClassAndObject(input);
+            return new UnsubscribeMessage(dynamicQueueName, pluginType, contextId, payload);
+        }
+    }
+
+    public static class StartFullSyncMessageSerializer extends Serializer<StartFullSyncFederationMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, StartFullSyncFederationMessage msg) {
+            output.writeVarLong(msg.getSequenceId(), true);
+        }
+
+        @Override
+        public StartFullSyncFederationMessage read(Kryo kryo, Input input,
+            Class<StartFullSyncFederationMessage> type) {
+            return (StartFullSyncFederationMessage) new StartFullSyncFederationMessage()
+                .setSequenceId(input.readVarLong(true));
+        }
+    }
+
+    public static class EndFullSyncMessageSerializer extends Serializer<EndFullSyncFederationMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, EndFullSyncFederationMessage msg) {
+            output.writeVarLong(msg.getSequenceId(), true);
+        }
+
+        @Override
+        public EndFullSyncFederationMessage read(Kryo kryo, Input input, Class<EndFullSyncFederationMessage> type) {
+            return new EndFullSyncFederationMessage(input.readVarLong(true));
+        }
+    }
+
+    public static class FullSyncFailedMessageSerializer extends Serializer<FullSyncFailedFederationMessage> {
+        @Override
+        public void write(Kryo kryo, Output output, FullSyncFailedFederationMessage msg) {
+            output.writeVarLong(msg.getSequenceId(), true);
+        }
+
+        @Override
+        public FullSyncFailedFederationMessage read(Kryo kryo, Input input,
+            Class<FullSyncFailedFederationMessage> type) {
+            return new FullSyncFailedFederationMessage(input.readVarLong(true));
+        }
+    }
+}
@@ -7,9 +7,12 @@
  */
 package org.opendaylight.federation.service.api.message;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
+
 /**
  * Message indicating that the Full Sync stage has failed.
  */
+@DefaultSerializer(FederationMessageSerializers.FullSyncFailedMessageSerializer.class)
 public class FullSyncFailedFederationMessage extends SequencedFederationMessage {
 
     public FullSyncFailedFederationMessage(long sequenceId) {
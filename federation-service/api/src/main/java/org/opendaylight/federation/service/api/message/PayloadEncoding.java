@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.api.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import org.opendaylight.controller.cluster.datastore.node.utils.stream.NormalizedNodeInputOutput;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.data.api.schema.NormalizedNode;
+
+/**
+ * The formats the entity of an {@link org.opendaylight.federation.service.common.api.EntityFederationMessage} can be
+ * encoded in. The consumer site chooses one per subscription. The ordinals are part of the wire format, so encodings
+ * may only be appended.
+ */
+public enum PayloadEncoding {
+
+    /**
+     * The JSON of RESTCONF, readable and understood by sites of any version.
+     */
+    JSON {
+        @Override
+        public byte[] encode(InstanceIdentifier<?> path, DataObject object) {
+            return BindingAwareJsonConverter.jsonBytesFromDataObject(path, object);
+        }
+
+        @Override
+        public NormalizedNode<?, ?> decode(byte[] payload, int offset, int length) {
+            return BindingAwareJsonConverter.normalizedNodeFromJsonBytes(payload, offset, length);
+        }
+    },
+
+    /**
+     * The NormalizedNode stream of the clustered datastore. Each QName is written once per entity and referred to by
+     * a code afterwards, and leaves are written in their own types rather than as quoted text, so it is smaller and
+     * much cheaper to write and parse than JSON.
+     */
+    BINARY {
+        @Override
+        public byte[] encode(InstanceIdentifier<?> path, DataObject object) {
+            NormalizedNode<?, ?> node = BindingAwareJsonConverter.normalizedNodeFromDataObject(path, object);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                NormalizedNodeInputOutput.newDataOutput(new DataOutputStream(bytes)).writeNormalizedNode(node);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed encoding " + path, e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public NormalizedNode<?, ?> decode(byte[] payload, int offset, int length) {
+            try {
+                return NormalizedNodeInputOutput
+                    .newDataInput(new DataInputStream(new ByteArrayInputStream(payload, offset, length)))
+                    .readNormalizedNode();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed decoding a binary payload", e);
+            }
+        }
+    };
+
+    public abstract byte[] encode(InstanceIdentifier<?> path, DataObject object);
+
+    /**
+     * Decodes the entity from a part of a buffer.
+     */
+    public abstract NormalizedNode<?, ?> decode(byte[] payload, int offset, int length);
+
+    /**
+     * Finds an encoding by its ordinal, which is how it goes on the wire.
+     *
+     * @throws IllegalArgumentException if there is no such encoding, e.g. since it was added in a later version.
+     */
+    public static PayloadEncoding forOrdinal(int ordinal) {
+        PayloadEncoding[] encodings = values();
+        if (ordinal < 0 || ordinal >= encodings.length) {
+            throw new IllegalArgumentException("Unknown payload encoding " + ordinal);
+        }
+        return encodings[ordinal];
+    }
+
+    /**
+     * Finds an encoding by its case insensitive name, as it appears in the configuration.
+     *
+     * @throws IllegalArgumentException if there is no such encoding.
+     */
+    public static PayloadEncoding forName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
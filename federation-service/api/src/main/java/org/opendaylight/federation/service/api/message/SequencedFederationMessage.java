@@ -20,6 +20,14 @@ public abstract class SequencedFederationMessage extends AbstractFederationMessa
         return sequenceId;
     }
 
+    /**
+     * The sequence id of the last message this message stands for. Only messages that carry several sequenced
+     * messages return something other than {@link #getSequenceId()}.
+     */
+    public long getLastSequenceId() {
+        return sequenceId;
+    }
+
     public SequencedFederationMessage setSequenceId(long sequenceId) {
         this.sequenceId = sequenceId;
         return this;
@@ -7,9 +7,12 @@
  */
 package org.opendaylight.federation.service.api.message;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
+
 /**
  * Message indicating that the Full Sync stage has started.
  */
+@DefaultSerializer(FederationMessageSerializers.StartFullSyncMessageSerializer.class)
 public class StartFullSyncFederationMessage extends SequencedFederationMessage {
 
     public StartFullSyncFederationMessage() {
@@ -7,12 +7,16 @@
  */
 package org.opendaylight.federation.service.api.message;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
 import org.opendaylight.messagequeue.AbstractFederationMessage;
 
 /**
  * Subscription issued by the consumer site to the producer site in order to subscribe for a federation session.
  */
+@DefaultSerializer(FederationMessageSerializers.SubscribeMessageSerializer.class)
 public class SubscribeMessage extends AbstractFederationMessage {
     private final String dynamicQueueName;
     private final String pluginType;
@@ -20,6 +24,10 @@ public class SubscribeMessage extends AbstractFederationMessage {
     private final String subscriberIp;
     private final String contextId;
     private final boolean requestMutualSubscription;
+    private final boolean acceptsCompressedPayload;
+    private final int partitions;
+    private final List<String> bindings;
+    private final PayloadEncoding payloadEncoding;
 
     public SubscribeMessage(String dynamicQueueName, String pluginType, Object payload, String subscriberIp,
         String contextId) {
@@ -28,13 +36,36 @@ public class SubscribeMessage extends AbstractFederationMessage {
 
     public SubscribeMessage(String dynamicQueueName, String pluginType, Object payload, String subscriberIp,
         String contextId, boolean requestMutualSubscription) {
+        this(dynamicQueueName, pluginType, payload, subscriberIp, contextId, requestMutualSubscription, false);
+    }
+
+    public SubscribeMessage(String dynamicQueueName, String pluginType, Object payload, String subscriberIp,
+        String contextId, boolean requestMutualSubscription, boolean acceptsCompressedPayload) {
+        this(dynamicQueueName, pluginType, payload, subscriberIp, contextId, requestMutualSubscription,
+            acceptsCompressedPayload, 1);
+    }
+
+    public SubscribeMessage(String dynamicQueueName, String pluginType, Object payload, String subscriberIp,
+        String contextId, boolean requestMutualSubscription, boolean acceptsCompressedPayload, int partitions) {
+        this(dynamicQueueName, pluginType, payload, subscriberIp, contextId, requestMutualSubscription,
+            acceptsCompressedPayload, partitions, ImmutableList.of(), PayloadEncoding.JSON);
+    }
+
+    public SubscribeMessage(String dynamicQueueName, String pluginType, Object payload, String subscriberIp,
+        String contextId, boolean requestMutualSubscription, boolean acceptsCompressedPayload, int partitions,
+        List<String> bindings, PayloadEncoding payloadEncoding) {
         super();
+        Preconditions.checkArgument(partitions > 0, "partitions must be positive: %s", partitions);
         this.dynamicQueueName = Preconditions.checkNotNull(dynamicQueueName);
         this.pluginType = Preconditions.checkNotNull(pluginType);
         this.payload = payload;
         this.requestMutualSubscription = requestMutualSubscription;
         this.subscriberIp = Preconditions.checkNotNull(subscriberIp);
         this.contextId = Preconditions.checkNotNull(contextId);
+        this.acceptsCompressedPayload = acceptsCompressedPayload;
+        this.partitions = partitions;
+        this.bindings = ImmutableList.copyOf(bindings);
+        this.payloadEncoding = Preconditions.checkNotNull(payloadEncoding);
     }
 
     public String getDynamicQueueName() {
@@ -53,7 +84,8 @@ public class SubscribeMessage extends AbstractFederationMessage {
     public String toString() {
         return "SubscribeMessage [dynamicQueueName=" + dynamicQueueName + ", pluginType=" + pluginType + ", payload="
             + payload + ", subscriberIp=" + subscriberIp + ", contextId=" + contextId + ", requestMutualSubscription="
-            + requestMutualSubscription + "]";
+            + requestMutualSubscription + ", acceptsCompressedPayload=" + acceptsCompressedPayload + ", partitions="
+            + partitions + ", bindings=" + bindings + ", payloadEncoding=" + payloadEncoding + "]";
     }
 
     public String getSubscriberIp() {
@@ -68,4 +100,35 @@ public class SubscribeMessage extends AbstractFederationMessage {
         return contextId;
     }
 
+    /**
+     * Whether the subscriber can decompress messages, so the producer may compress the messages it sends to the
+     * dynamic queue.
+     */
+    public boolean isAcceptsCompressedPayload() {
+        return acceptsCompressedPayload;
+    }
+
+    /**
+     * The number of dynamic queues the subscriber consumes from, the first of which is the dynamic queue itself. The
+     * producer sends all the messages of an entity to the one queue its key hashes to.
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * The topic style bindings the entities must match to be sent to the subscriber, all of them are sent when there
+     * are none.
+     */
+    public List<String> getBindings() {
+        return bindings;
+    }
+
+    /**
+     * The encoding the subscriber wants the entities in.
+     */
+    public PayloadEncoding getPayloadEncoding() {
+        return payloadEncoding;
+    }
+
 }
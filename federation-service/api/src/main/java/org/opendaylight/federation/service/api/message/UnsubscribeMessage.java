@@ -7,12 +7,14 @@
  */
 package org.opendaylight.federation.service.api.message;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
 import com.google.common.base.Preconditions;
 import org.opendaylight.messagequeue.AbstractFederationMessage;
 
 /**
  * Unsubscription issued by the consumer site to the producer site in order to close and clean the federation session.
  */
+@DefaultSerializer(FederationMessageSerializers.UnsubscribeMessageSerializer.class)
 public class UnsubscribeMessage extends AbstractFederationMessage {
 
     private final String dynamicQueueName;
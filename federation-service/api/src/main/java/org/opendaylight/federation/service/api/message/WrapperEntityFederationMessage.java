@@ -7,6 +7,7 @@
  */
 package org.opendaylight.federation.service.api.message;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
 import org.opendaylight.federation.service.common.api.EntityFederationMessage;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 
@@ -14,6 +15,7 @@ import org.opendaylight.yangtools.yang.binding.DataObject;
  * A wrapper for the {@link EntityFederationMessage} used by the plugins. This wrapper is not exposed to the plugins and
  * may be used by the infrastructure to add metadata about the message.
  */
+@DefaultSerializer(FederationMessageSerializers.WrapperEntityMessageSerializer.class)
 public class WrapperEntityFederationMessage extends SequencedFederationMessage {
 
     private final EntityFederationMessage<? extends DataObject> payload;
@@ -7,12 +7,21 @@
  */
 package org.opendaylight.federation.service.common.api;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Strings;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.opendaylight.federation.plugin.spi.IFederationPluginEgress;
 import org.opendaylight.federation.service.api.IFederationProducerMgr;
+import org.opendaylight.federation.service.api.federationutil.FederationUtils;
 import org.opendaylight.federation.service.api.message.BindingAwareJsonConverter;
+import org.opendaylight.federation.service.api.message.FederationMessageSerializers;
+import org.opendaylight.federation.service.api.message.PayloadEncoding;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.opendaylight.yangtools.yang.binding.util.BindingReflections;
@@ -25,22 +34,38 @@ import org.opendaylight.yangtools.yang.data.api.schema.NormalizedNode;
  * {@link IFederationPluginEgress#steadyData(String, java.util.Collection)}, and sent by using the
  * {@link IFederationProducerMgr#publishMessage(EntityFederationMessage, String, String)}. An important thing to
  * remember is that in order to send a DTO, which is a class that extends {@link DataObject}, the federation
- * infrastructure converts it to JSON on the producer side. On the consumer side, the JSON will be converted back to a
- * {@link DataObject}. To convert back and forth, the entity must be part of a full YANG tree, and cannot stand alone by
- * itself. For example, in order to send an ElanInterface, the user must create a dummy ElanInterfaces and
- * add to it the single ElanInterface it wants to send.
+ * infrastructure converts it to JSON, or to the {@link PayloadEncoding} the consumer asked for, when the message bus
+ * sends it. On the consumer side, it will be converted back to a {@link DataObject}. To convert back and forth, the
+ * entity must be part of a full YANG tree, and cannot stand alone by itself. For example, in order to send an
+ * ElanInterface, the user must create a dummy ElanInterfaces and add to it the single ElanInterface it wants to send.
  *
  * @param <T> The type of the entity that is sent in this message.
  */
-public class EntityFederationMessage<T extends DataObject> {
+public class EntityFederationMessage<T extends DataObject> implements KryoSerializable {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<EntityFederationMessage, DataObject> INPUT_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(EntityFederationMessage.class, DataObject.class, "input");
 
     private String dataStoreType;
     private String modificationType;
     private String metadata;
     private String originator;
-    private String jsonInput;
+    private PayloadEncoding payloadEncoding;
+    // set when the message was received, a message created on this site encodes its input only when it is written
+    private byte[] payload;
     private Class<? extends DataObject> inputClassType;
-    private transient T input;
+    // decoded on first use by whichever thread asks first, see getInput
+    private transient volatile T input;
+    // only known on the producer site
+    private transient InstanceIdentifier<T> instanceIdentifier;
+    // the encodings of the input made so far by ordinal, shared with the copies of the message in other encodings
+    private transient AtomicReferenceArray<byte[]> encodedPayloads;
+    // only needed by the producer, to choose the dynamic queue partition and filter by the bindings of the consumer
+    private transient int keyHash;
+    // written after keyHash, which is computed when it is first asked for
+    private transient volatile boolean keyHashKnown;
+    private transient String routingKey;
 
     public EntityFederationMessage(String dataStoreType, String modificationType, String metadata, String originator,
         InstanceIdentifier<T> instanceIdentifier, T input) {
@@ -49,15 +74,50 @@ public class EntityFederationMessage<T extends DataObject> {
         this.metadata = metadata;
         this.originator = originator;
         this.input = Preconditions.checkNotNull(input);
-        this.jsonInput =
-            BindingAwareJsonConverter.jsonStringFromDataObject(Preconditions.checkNotNull(instanceIdentifier), input);
+        this.instanceIdentifier = Preconditions.checkNotNull(instanceIdentifier);
+        this.payloadEncoding = PayloadEncoding.JSON;
+        this.encodedPayloads = new AtomicReferenceArray<>(PayloadEncoding.values().length);
         this.inputClassType = input.getClass();
+        this.routingKey = FederationUtils.createRoutingKey(dataStoreType, input.getImplementedInterface());
+    }
+
+    private EntityFederationMessage(EntityFederationMessage<T> other, PayloadEncoding payloadEncoding) {
+        this.dataStoreType = other.dataStoreType;
+        this.modificationType = other.modificationType;
+        this.metadata = other.metadata;
+        this.originator = other.originator;
+        this.input = other.input;
+        this.instanceIdentifier = other.instanceIdentifier;
+        this.payloadEncoding = payloadEncoding;
+        this.encodedPayloads = other.encodedPayloads;
+        this.inputClassType = other.inputClassType;
+        if (other.keyHashKnown) {
+            this.keyHash = other.keyHash;
+            this.keyHashKnown = true;
+        }
+        this.routingKey = other.routingKey;
     }
 
     @VisibleForTesting
     public EntityFederationMessage() {
     }
 
+    /**
+     * Returns the message with its entity in the given encoding, which is a copy unless it already is. The entity is
+     * encoded once per encoding, when the first message in that encoding is written or asked for its payload, so the
+     * copies for several consumers share the work. Only messages that were created on this site can be encoded again.
+     *
+     * @param encoding The encoding the consumer asked for.
+     * @return The message in the encoding.
+     */
+    public EntityFederationMessage<T> withPayloadEncoding(PayloadEncoding encoding) {
+        if (encoding == payloadEncoding) {
+            return this;
+        }
+        Preconditions.checkState(encodedPayloads != null, "A received message can't be encoded again");
+        return new EntityFederationMessage<>(this, encoding);
+    }
+
     public String getDataStoreType() {
         return dataStoreType;
     }
@@ -74,34 +134,165 @@ public class EntityFederationMessage<T extends DataObject> {
         return originator;
     }
 
+    /**
+     * The entity as JSON, or null if it is encoded otherwise. Encodes the entity if that didn't happen yet.
+     */
     public String getJsonInput() {
-        return jsonInput;
+        if (payloadEncoding != PayloadEncoding.JSON) {
+            return null;
+        }
+        if (encodedPayloads != null) {
+            return new String(getEncodedPayload(), StandardCharsets.UTF_8);
+        }
+        return payload != null ? new String(payload, StandardCharsets.UTF_8) : null;
+    }
+
+    public PayloadEncoding getPayloadEncoding() {
+        return payloadEncoding;
+    }
+
+    /**
+     * The size of the encoded entity in bytes. Encodes the entity if that didn't happen yet.
+     */
+    public int getPayloadSize() {
+        if (encodedPayloads != null) {
+            return getEncodedPayload().length;
+        }
+        return payload != null ? payload.length : 0;
+    }
+
+    /*
+     * Encodes the input of a message created on this site on first use. Two threads may both encode it, but they come
+     * up with the same bytes and only the first are kept.
+     */
+    private byte[] getEncodedPayload() {
+        int index = payloadEncoding.ordinal();
+        byte[] encoded = encodedPayloads.get(index);
+        if (encoded == null) {
+            encodedPayloads.compareAndSet(index, null, payloadEncoding.encode(instanceIdentifier, input));
+            encoded = encodedPayloads.get(index);
+        }
+        return encoded;
+    }
+
+    /**
+     * A hash of the path of the entity that is the same on every run, see
+     * {@link FederationUtils#stableKeyHash(InstanceIdentifier)}. Only known on the producer site, and computed on first
+     * use since only consumers with several partitions need it.
+     */
+    public int getKeyHash() {
+        if (!keyHashKnown && instanceIdentifier != null) {
+            // threads that get here at the same time compute the same hash
+            keyHash = FederationUtils.stableKeyHash(instanceIdentifier);
+            keyHashKnown = true;
+        }
+        return keyHash;
+    }
+
+    /**
+     * The key the bindings of the consumer are matched against, see
+     * {@link FederationUtils#createRoutingKey(String, Class)}. Only known on the producer site.
+     */
+    public String getRoutingKey() {
+        return routingKey;
     }
 
     public Class<? extends DataObject> getInputClassType() {
         return inputClassType;
     }
 
+    /**
+     * The entity of the message. A received message decodes it on first use, and the decoded entity is kept, so it can
+     * be asked for from any thread without locking. Threads that ask at the same time may each decode it, but all of
+     * them get the entity that was kept first.
+     */
     @SuppressWarnings("unchecked")
-    public synchronized T getInput() {
-        if (input != null) {
-            return input;
+    public T getInput() {
+        T decoded = input;
+        if (decoded != null) {
+            return decoded;
         }
 
-        if (Strings.isNullOrEmpty(jsonInput)) {
+        // the input of a message created on this site is always there, so only a received payload is decoded
+        if (payload == null || payload.length == 0) {
             return null;
         }
 
-        NormalizedNode<?, ?> normalizedNode = BindingAwareJsonConverter.normalizedNodeFromJsonString(jsonInput);
-        input = (T) BindingAwareJsonConverter.dataObjectFromNormalizedNode(BindingReflections.findQName(inputClassType),
-            normalizedNode);
-        return input;
+        NormalizedNode<?, ?> normalizedNode = payloadEncoding.decode(payload, 0, payload.length);
+        decoded = (T) BindingAwareJsonConverter.dataObjectFromNormalizedNode(
+            BindingReflections.findQName(inputClassType), normalizedNode);
+        if (!INPUT_UPDATER.compareAndSet(this, null, decoded)) {
+            decoded = input;
+        }
+        return decoded;
+    }
+
+    /**
+     * Decodes the entity of a received message if that didn't happen yet, so that a transport can do it on its own
+     * threads before the message reaches the plugin. Does nothing for a message created on this site.
+     *
+     * @throws RuntimeException if the payload can't be decoded, it is thrown again when the entity is asked for.
+     */
+    public void decodeAhead() {
+        getInput();
+    }
+
+    /*
+     * The datastore type, modification type and originator come from tiny value sets, so they go as short codes, and
+     * the name of the input class is written only once per bus message.
+     */
+    @Override
+    public void write(Kryo kryo, Output output) {
+        FederationMessageSerializers.writeDictionaryString(kryo, output, dataStoreType);
+        FederationMessageSerializers.writeDictionaryString(kryo, output, modificationType);
+        FederationMessageSerializers.writeDictionaryString(kryo, output, originator);
+        output.writeString(metadata);
+        FederationMessageSerializers.writeInputClass(kryo, output, inputClassType);
+        output.writeByte(payloadEncoding != null ? payloadEncoding.ordinal() : PayloadEncoding.JSON.ordinal());
+        byte[] bytes = encodedPayloads != null ? getEncodedPayload() : payload;
+        // the length is shifted by one, so that zero stands for no payload
+        output.writeVarInt(bytes != null ? bytes.length + 1 : 0, true);
+        if (bytes != null) {
+            output.writeBytes(bytes);
+        }
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+        dataStoreType = FederationMessageSerializers.readDictionaryString(kryo, input);
+        modificationType = FederationMessageSerializers.readDictionaryString(kryo, input);
+        originator = FederationMessageSerializers.readDictionaryString(kryo, input);
+        metadata = input.readString();
+        inputClassType = FederationMessageSerializers.readInputClass(kryo, input);
+        payloadEncoding = PayloadEncoding.forOrdinal(input.readByte());
+        int length = input.readVarInt(true);
+        // copied rather than left in the buffer of the input: a transport may reuse that buffer for the next message,
+        // and an entity that a plugin holds on to would otherwise keep the whole bus message, e.g. a batch, alive
+        payload = length == 0 ? null : input.readBytes(length - 1);
     }
 
     @Override
     public String toString() {
         return "EntityFederationMessage [dataStoreType=" + dataStoreType + ", modificationType=" + modificationType
-            + ", metadata=" + metadata + ", originator=" + originator + ", jsonInput=" + jsonInput + ", inputClassType="
-            + inputClassType + "]";
+            + ", metadata=" + metadata + ", originator=" + originator + ", payloadEncoding=" + payloadEncoding
+            + ", payload=" + describePayload() + ", inputClassType=" + inputClassType + "]";
+    }
+
+    /*
+     * Logging a message must not encode it.
+     */
+    private String describePayload() {
+        if (encodedPayloads == null) {
+            if (payload == null) {
+                return null;
+            }
+            return payloadEncoding == PayloadEncoding.JSON ? getJsonInput() : payload.length + " bytes";
+        }
+        byte[] encoded = encodedPayloads.get(payloadEncoding.ordinal());
+        if (encoded == null) {
+            return "not encoded yet, input=" + input;
+        }
+        return payloadEncoding == PayloadEncoding.JSON ? new String(encoded, StandardCharsets.UTF_8)
+            : encoded.length + " bytes";
     }
 }
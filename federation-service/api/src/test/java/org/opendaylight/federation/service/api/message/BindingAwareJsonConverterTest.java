@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.api.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigData;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigDataBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.binding.util.BindingReflections;
+
+public class BindingAwareJsonConverterTest {
+
+    private static final InstanceIdentifier<FederationConfigData> PATH =
+        InstanceIdentifier.create(FederationConfigData.class);
+
+    @Before
+    public void initConverter() {
+        // a fresh cache for every test
+        BindingAwareJsonConverter.init(
+            Collections.singleton(BindingReflections.getModuleInfo(FederationConfigData.class)));
+    }
+
+    @Test
+    public void pathCodecIsReusedForEntitiesOfSamePath() {
+        assertEquals(0, BindingAwareJsonConverter.cachedPathCodecs());
+
+        String first = BindingAwareJsonConverter.jsonStringFromDataObject(PATH, config("10.0.0.1"));
+        String second = BindingAwareJsonConverter.jsonStringFromDataObject(PATH, config("10.0.0.2"));
+        byte[] third = BindingAwareJsonConverter.jsonBytesFromDataObject(PATH, config("10.0.0.3"));
+        BindingAwareJsonConverter.jsonStringFromDataObject(InstanceIdentifier.create(FederationConfigData.class),
+            config("10.0.0.4"), true);
+
+        assertEquals(1, BindingAwareJsonConverter.cachedPathCodecs());
+        assertEquals(first.replace("10.0.0.1", "10.0.0.2"), second);
+        assertArrayEquals(first.replace("10.0.0.1", "10.0.0.3").getBytes(StandardCharsets.UTF_8), third);
+    }
+
+    @Test
+    public void jsonRoundTrip() {
+        byte[] json = BindingAwareJsonConverter.jsonBytesFromDataObject(PATH, config("10.0.0.1"));
+        byte[] framed = new byte[json.length + 8];
+        System.arraycopy(json, 0, framed, 4, json.length);
+
+        FederationConfigData read = (FederationConfigData) BindingAwareJsonConverter.dataObjectFromNormalizedNode(
+            FederationConfigData.QNAME,
+            BindingAwareJsonConverter.normalizedNodeFromJsonBytes(framed, 4, json.length));
+
+        assertEquals("10.0.0.1", read.getSiteIp());
+        assertEquals(Integer.valueOf(5672), read.getMqPortNumber());
+    }
+
+    @Test
+    public void nothingIsWrittenForNoEntity() {
+        assertNull(BindingAwareJsonConverter.jsonStringFromDataObject(PATH, null));
+        assertNull(BindingAwareJsonConverter.jsonBytesFromDataObject(PATH, null));
+        assertEquals(0, BindingAwareJsonConverter.cachedPathCodecs());
+    }
+
+    private static FederationConfigData config(String siteIp) {
+        return new FederationConfigDataBuilder().setSiteIp(siteIp).setMqPortNumber(5672).build();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.api.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigData;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigDataBuilder;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.binding.util.BindingReflections;
+
+public class FederationMessageSerializersTest {
+
+    private static final InstanceIdentifier<FederationConfigData> PATH =
+        InstanceIdentifier.create(FederationConfigData.class);
+
+    @BeforeClass
+    public static void initConverter() {
+        BindingAwareJsonConverter.init(
+            Collections.singleton(BindingReflections.getModuleInfo(FederationConfigData.class)));
+    }
+
+    @Test
+    public void wrapperRoundTrip() {
+        WrapperEntityFederationMessage msg = (WrapperEntityFederationMessage) new WrapperEntityFederationMessage(
+            entityMsg("CONFIGURATION", "WRITE", "site-a", "10.0.0.1")).setSequenceId(300);
+
+        WrapperEntityFederationMessage read = roundTrip(msg);
+
+        assertEquals(300, read.getSequenceId());
+        assertEntity(msg.getPayload(), read.getPayload());
+    }
+
+    @Test
+    public void batchRoundTripReusesDictionaryStrings() {
+        List<EntityFederationMessage<? extends DataObject>> payloads = Arrays.asList(
+            entityMsg("CONFIGURATION", "WRITE", "site-a", "10.0.0.1"),
+            entityMsg("OPERATIONAL", "DELETE", "site-a", "10.0.0.2"),
+            entityMsg("custom-store", "custom-modification", "site-a", "10.0.0.3"),
+            entityMsg("custom-store", "custom-modification", "site-b", "10.0.0.4"),
+            entityMsg("custom-store", "WRITE", null, "10.0.0.5"));
+        BatchEntityFederationMessage msg = new BatchEntityFederationMessage(7, payloads);
+
+        BatchEntityFederationMessage read = roundTrip(msg);
+
+        assertEquals(7, read.getSequenceId());
+        assertEquals(11, read.getLastSequenceId());
+        assertEquals(payloads.size(), read.getPayloads().size());
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEntity(payloads.get(i), read.getPayloads().get(i));
+        }
+    }
+
+    @Test
+    public void dictionaryDoesNotOutliveTopLevelObject() {
+        Kryo kryo = new Kryo();
+        write(kryo, new WrapperEntityFederationMessage(entityMsg("custom-store", "WRITE", "site-a", "10.0.0.1")));
+        EntityFederationMessage<?> second = entityMsg("custom-store", "WRITE", "site-a", "10.0.0.2");
+        byte[] bytes = write(kryo, new WrapperEntityFederationMessage(second));
+
+        // read by a site that never saw the first message
+        WrapperEntityFederationMessage read = (WrapperEntityFederationMessage) read(new Kryo(), bytes);
+
+        assertEntity(second, read.getPayload());
+    }
+
+    @Test
+    public void binaryPayloadRoundTrip() {
+        EntityFederationMessage<FederationConfigData> entity = entityMsg("CONFIGURATION", "WRITE", "site-a",
+            "10.0.0.1").withPayloadEncoding(PayloadEncoding.BINARY);
+
+        WrapperEntityFederationMessage read = roundTrip(new WrapperEntityFederationMessage(entity));
+
+        assertEquals(PayloadEncoding.BINARY, read.getPayload().getPayloadEncoding());
+        assertNull(read.getPayload().getJsonInput());
+        assertEntity(entity, read.getPayload());
+    }
+
+    @Test
+    public void subscribeRoundTrip() {
+        SubscribeMessage msg = new SubscribeMessage("queue", "plugin", "payload", "10.0.0.1", "context", true, true,
+            4, Arrays.asList("CONFIGURATION.#", "*.org.example.Entity"), PayloadEncoding.BINARY);
+
+        SubscribeMessage read = roundTrip(msg);
+
+        assertEquals("queue", read.getDynamicQueueName());
+        assertEquals("plugin", read.getPluginType());
+        assertEquals("payload", read.getPayload());
+        assertEquals("10.0.0.1", read.getSubscriberIp());
+        assertEquals("context", read.getContextId());
+        assertTrue(read.isRequestMutualSubscription());
+        assertTrue(read.isAcceptsCompressedPayload());
+        assertEquals(4, read.getPartitions());
+        assertEquals(msg.getBindings(), read.getBindings());
+        assertEquals(PayloadEncoding.BINARY, read.getPayloadEncoding());
+    }
+
+    @Test
+    public void subscribeWithDefaultsRoundTrip() {
+        SubscribeMessage read = roundTrip(new SubscribeMessage("queue", "plugin", null, "10.0.0.1", "context"));
+
+        assertNull(read.getPayload());
+        assertFalse(read.isRequestMutualSubscription());
+        assertFalse(read.isAcceptsCompressedPayload());
+        assertEquals(1, read.getPartitions());
+        assertTrue(read.getBindings().isEmpty());
+        assertEquals(PayloadEncoding.JSON, read.getPayloadEncoding());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void subscribeWithUnknownPayloadEncodingIsRejected() {
+        byte[] bytes = write(new Kryo(), new SubscribeMessage("queue", "plugin", null, "10.0.0.1", "context"));
+        // the payload encoding is written last
+        bytes[bytes.length - 1] = (byte) PayloadEncoding.values().length;
+
+        read(new Kryo(), bytes);
+    }
+
+    @Test(expected = KryoException.class)
+    public void inputClassThatIsNotADataObjectIsRejected() {
+        Output output = new Output(64, -1);
+        FederationMessageSerializers.writeDictionaryString(new Kryo(), output, Thread.class.getName());
+
+        FederationMessageSerializers.readInputClass(new Kryo(), new Input(output.toBytes()));
+    }
+
+    @Test
+    public void unsubscribeRoundTrip() {
+        UnsubscribeMessage read = roundTrip(new UnsubscribeMessage("queue", "plugin", "context", "payload"));
+
+        assertEquals("queue", read.getDynamicQueueName());
+        assertEquals("plugin", read.getPluginType());
+        assertEquals("context", read.getContextId());
+        assertEquals("payload", read.getPayload());
+    }
+
+    @Test
+    public void fullSyncMessagesRoundTrip() {
+        StartFullSyncFederationMessage start = roundTrip(
+            (StartFullSyncFederationMessage) new StartFullSyncFederationMessage().setSequenceId(0));
+        EndFullSyncFederationMessage end = roundTrip(new EndFullSyncFederationMessage(Long.MAX_VALUE));
+        FullSyncFailedFederationMessage failed = roundTrip(new FullSyncFailedFederationMessage(128));
+
+        assertEquals(0, start.getSequenceId());
+        assertEquals(Long.MAX_VALUE, end.getSequenceId());
+        assertEquals(128, failed.getSequenceId());
+    }
+
+    private static EntityFederationMessage<FederationConfigData> entityMsg(String dataStoreType,
+        String modificationType, String originator, String siteIp) {
+        FederationConfigData input = new FederationConfigDataBuilder().setSiteIp(siteIp).setMqPortNumber(5672)
+            .build();
+        return new EntityFederationMessage<>(dataStoreType, modificationType, "metadata of " + siteIp, originator,
+            PATH, input);
+    }
+
+    private static void assertEntity(EntityFederationMessage<?> expected, EntityFederationMessage<?> actual) {
+        assertEquals(expected.getDataStoreType(), actual.getDataStoreType());
+        assertEquals(expected.getModificationType(), actual.getModificationType());
+        assertEquals(expected.getMetadata(), actual.getMetadata());
+        assertEquals(expected.getOriginator(), actual.getOriginator());
+        assertEquals(expected.getInputClassType(), actual.getInputClassType());
+        assertEquals(expected.getPayloadEncoding(), actual.getPayloadEncoding());
+        assertEquals(expected.getPayloadSize(), actual.getPayloadSize());
+        FederationConfigData expectedInput = (FederationConfigData) expected.getInput();
+        FederationConfigData actualInput = (FederationConfigData) actual.getInput();
+        assertEquals(expectedInput.getSiteIp(), actualInput.getSiteIp());
+        assertEquals(expectedInput.getMqPortNumber(), actualInput.getMqPortNumber());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T msg) {
+        return (T) read(new Kryo(), write(new Kryo(), msg));
+    }
+
+    private static byte[] write(Kryo kryo, Object msg) {
+        Output output = new Output(256, -1);
+        kryo.writeClassAndObject(output, msg);
+        return output.toBytes();
+    }
+
+    private static Object read(Kryo kryo, byte[] bytes) {
+        Input input = new Input(bytes);
+        Object read = kryo.readClassAndObject(input);
+        assertEquals("the whole message is read", bytes.length, input.position());
+        return read;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.api.message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.util.Collections;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigData;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigDataBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.binding.util.BindingReflections;
+
+public class PayloadEncodingTest {
+
+    private static final InstanceIdentifier<FederationConfigData> PATH =
+        InstanceIdentifier.create(FederationConfigData.class);
+
+    @BeforeClass
+    public static void initConverter() {
+        BindingAwareJsonConverter.init(
+            Collections.singleton(BindingReflections.getModuleInfo(FederationConfigData.class)));
+    }
+
+    @Test
+    public void jsonFromProducerIsReadByBinaryConsumer() {
+        // a producer site that doesn't know the binary encoding ignores what the subscription asked for
+        EntityFederationMessage<?> received = roundTrip(entityMsg());
+
+        // the encoding goes with every entity, so the consumer decodes what it got
+        assertEquals(PayloadEncoding.JSON, received.getPayloadEncoding());
+        assertNotNull(received.getJsonInput());
+        FederationConfigData input = (FederationConfigData) received.getInput();
+        assertEquals("10.0.0.1", input.getSiteIp());
+        assertEquals(Integer.valueOf(5672), input.getMqPortNumber());
+    }
+
+    @Test
+    public void binaryFromProducerIsReadByJsonConsumer() {
+        EntityFederationMessage<?> received = roundTrip(entityMsg().withPayloadEncoding(PayloadEncoding.BINARY));
+
+        assertEquals(PayloadEncoding.BINARY, received.getPayloadEncoding());
+        assertEquals("10.0.0.1", ((FederationConfigData) received.getInput()).getSiteIp());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonPayloadIsNotDecodedAsBinary() {
+        byte[] json = PayloadEncoding.JSON.encode(PATH, entityMsg().getInput());
+
+        PayloadEncoding.BINARY.decode(json, 0, json.length);
+    }
+
+    @Test
+    public void encodingsAreFoundByOrdinal() {
+        for (PayloadEncoding encoding : PayloadEncoding.values()) {
+            assertEquals(encoding, PayloadEncoding.forOrdinal(encoding.ordinal()));
+        }
+        // the wire format
+        assertEquals(PayloadEncoding.JSON, PayloadEncoding.forOrdinal(0));
+        assertEquals(PayloadEncoding.BINARY, PayloadEncoding.forOrdinal(1));
+    }
+
+    @Test
+    public void unknownOrdinalIsRejected() {
+        assertRejectedOrdinal(-1);
+        assertRejectedOrdinal(PayloadEncoding.values().length);
+        assertRejectedOrdinal(Byte.MAX_VALUE);
+    }
+
+    @Test
+    public void encodingsAreFoundByName() {
+        assertEquals(PayloadEncoding.JSON, PayloadEncoding.forName("JSON"));
+        assertEquals(PayloadEncoding.BINARY, PayloadEncoding.forName(" binary "));
+        assertEquals(PayloadEncoding.BINARY, PayloadEncoding.forName("Binary"));
+    }
+
+    @Test
+    public void unknownNameIsRejected() {
+        assertRejectedName("xml");
+        assertRejectedName("");
+        assertRejectedName("JSON BINARY");
+    }
+
+    private static EntityFederationMessage<FederationConfigData> entityMsg() {
+        FederationConfigData input = new FederationConfigDataBuilder().setSiteIp("10.0.0.1").setMqPortNumber(5672)
+            .build();
+        return new EntityFederationMessage<>("CONFIGURATION", "WRITE", null, "site-a", PATH, input);
+    }
+
+    private static EntityFederationMessage<?> roundTrip(EntityFederationMessage<?> msg) {
+        Output output = new Output(256, -1);
+        new Kryo().writeClassAndObject(output, new WrapperEntityFederationMessage(msg));
+        Input input = new Input(output.toBytes());
+        return ((WrapperEntityFederationMessage) new Kryo().readClassAndObject(input)).getPayload();
+    }
+
+    private static void assertRejectedOrdinal(int ordinal) {
+        try {
+            PayloadEncoding.forOrdinal(ordinal);
+            fail("accepted ordinal " + ordinal);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertRejectedName(String name) {
+        try {
+            PayloadEncoding.forName(name);
+            fail("accepted name '" + name + "'");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.common.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.federation.service.api.message.BindingAwareJsonConverter;
+import org.opendaylight.federation.service.api.message.PayloadEncoding;
+import org.opendaylight.federation.service.api.message.WrapperEntityFederationMessage;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.Uuid;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigData;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.federation.service.config.rev161110.FederationConfigDataBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.binding.util.BindingReflections;
+
+public class EntityFederationMessageTest {
+
+    private static final InstanceIdentifier<FederationConfigData> PATH =
+        InstanceIdentifier.create(FederationConfigData.class);
+
+    @Before
+    public void initConverter() {
+        BindingAwareJsonConverter.init(
+            Collections.singleton(BindingReflections.getModuleInfo(FederationConfigData.class)));
+    }
+
+    @Test
+    public void concurrentReadersGetTheSameInput() throws Exception {
+        for (PayloadEncoding encoding : PayloadEncoding.values()) {
+            EntityFederationMessage<?> received = received(encoding, new byte[0]);
+            int threads = 8;
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> inputs = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    inputs.add(executor.submit(() -> {
+                        start.await();
+                        return received.getInput();
+                    }));
+                }
+                start.countDown();
+
+                Object first = inputs.get(0).get(10, TimeUnit.SECONDS);
+                assertEquals("10.0.0.1", ((FederationConfigData) first).getSiteIp());
+                for (Future<?> input : inputs) {
+                    assertSame(first, input.get(10, TimeUnit.SECONDS));
+                }
+                assertSame(first, received.getInput());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void inputDecodedAheadIsNotDecodedAgain() {
+        EntityFederationMessage<?> received = received(PayloadEncoding.JSON, new byte[0]);
+        received.decodeAhead();
+        Object decoded = received.getInput();
+
+        // without the schema of the entity it couldn't be decoded any more
+        BindingAwareJsonConverter.init(Collections.singleton(BindingReflections.getModuleInfo(Uuid.class)));
+
+        assertSame(decoded, received.getInput());
+        received.decodeAhead();
+        assertSame(decoded, received.getInput());
+    }
+
+    @Test
+    public void payloadDoesNotShareTheBufferItWasReadFrom() {
+        byte[] prefix = new byte[17];
+        Arrays.fill(prefix, (byte) 1);
+        byte[] buffer = bytesOf(PayloadEncoding.JSON, prefix);
+        EntityFederationMessage<?> received = read(buffer, prefix.length);
+        int payloadSize = received.getPayloadSize();
+        String json = received.getJsonInput();
+
+        // as a transport that reuses its buffer for the next message does
+        Arrays.fill(buffer, (byte) 0);
+
+        assertEquals(payloadSize, received.getPayloadSize());
+        assertEquals(json, received.getJsonInput());
+        assertEquals("10.0.0.1", ((FederationConfigData) received.getInput()).getSiteIp());
+    }
+
+    @Test
+    public void receivedMessageIsWrittenAgainUnchanged() {
+        for (PayloadEncoding encoding : PayloadEncoding.values()) {
+            EntityFederationMessage<?> received = received(encoding, new byte[0]);
+            byte[] again = bytesOf(received, new byte[0]);
+
+            EntityFederationMessage<?> forwarded = read(again, 0);
+
+            assertEquals(encoding, forwarded.getPayloadEncoding());
+            assertEquals(received.getPayloadSize(), forwarded.getPayloadSize());
+            assertEquals("10.0.0.1", ((FederationConfigData) forwarded.getInput()).getSiteIp());
+        }
+    }
+
+    @Test
+    public void messageWithoutPayloadHasNoInput() {
+        EntityFederationMessage<?> msg = new EntityFederationMessage<>();
+
+        msg.decodeAhead();
+
+        assertEquals(0, msg.getPayloadSize());
+        assertNull(msg.getInput());
+    }
+
+    private static EntityFederationMessage<?> received(PayloadEncoding encoding, byte[] prefix) {
+        return read(bytesOf(encoding, prefix), prefix.length);
+    }
+
+    private static byte[] bytesOf(PayloadEncoding encoding, byte[] prefix) {
+        FederationConfigData input = new FederationConfigDataBuilder().setSiteIp("10.0.0.1").setMqPortNumber(5672)
+            .build();
+        return bytesOf(new EntityFederationMessage<>("CONFIGURATION", "WRITE", null, "site-a", PATH, input)
+            .withPayloadEncoding(encoding), prefix);
+    }
+
+    /*
+     * The message is written behind the prefix, like a message in the middle of a bigger buffer.
+     */
+    private static byte[] bytesOf(EntityFederationMessage<?> msg, byte[] prefix) {
+        Output output = new Output(256, -1);
+        output.writeBytes(prefix);
+        new Kryo().writeClassAndObject(output, new WrapperEntityFederationMessage(msg));
+        return output.toBytes();
+    }
+
+    private static EntityFederationMessage<?> read(byte[] buffer, int offset) {
+        Input input = new Input(buffer);
+        input.setPosition(offset);
+        return ((WrapperEntityFederationMessage) new Kryo().readClassAndObject(input)).getPayload();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.opendaylight.federation.service.api.message.BatchEntityFederationMessage;
+import org.opendaylight.federation.service.api.message.SequencedFederationMessage;
+import org.opendaylight.federation.service.api.message.WrapperEntityFederationMessage;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * Collects entity messages with consecutive sequence ids of one consumer until the batch is full by count or by
+ * estimated size. Not thread safe, callers must guard it together with the sequence of the consumer.
+ */
+class EntityMessageBatcher {
+
+    private final int maxMessages;
+    // 0 if the batch is only bounded by count
+    private final int maxBytes;
+    private final List<EntityFederationMessage<? extends DataObject>> pending = new ArrayList<>();
+    private long firstSequenceId;
+    private int pendingBytes;
+
+    EntityMessageBatcher(int maxMessages, int maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a batcher that never estimates the size of the messages, for buses that don't encode them.
+     */
+    EntityMessageBatcher(int maxMessages) {
+        this(maxMessages, 0);
+    }
+
+    /**
+     * Adds a message to the batch.
+     *
+     * @return The message to send if the batch became full, otherwise null.
+     */
+    SequencedFederationMessage add(EntityFederationMessage<? extends DataObject> msg, long sequenceId) {
+        // before the batch changes, so a message that fails to encode isn't left in it
+        int size = maxBytes > 0 ? estimateSize(msg) : 0;
+        if (pending.isEmpty()) {
+            firstSequenceId = sequenceId;
+        }
+        pending.add(msg);
+        pendingBytes += size;
+        if (pending.size() >= maxMessages || (maxBytes > 0 && pendingBytes >= maxBytes)) {
+            return drain();
+        }
+        return null;
+    }
+
+    /**
+     * Empties the batch.
+     *
+     * @return The message to send with everything that was pending, or null if nothing was.
+     */
+    SequencedFederationMessage drain() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        SequencedFederationMessage msg;
+        if (pending.size() == 1) {
+            msg = new WrapperEntityFederationMessage(pending.get(0)).setSequenceId(firstSequenceId);
+        } else {
+            msg = new BatchEntityFederationMessage(firstSequenceId, pending);
+        }
+        pending.clear();
+        pendingBytes = 0;
+        return msg;
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /*
+     * The entity was already encoded by the producer before it took its sequence id, the bus reuses the bytes.
+     */
+    private static int estimateSize(EntityFederationMessage<? extends DataObject> msg) {
+        return msg.getPayloadSize();
+    }
+}
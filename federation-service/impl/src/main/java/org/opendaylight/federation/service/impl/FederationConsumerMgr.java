@@ -12,6 +12,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
@@ -23,6 +25,7 @@ import org.opendaylight.federation.service.api.IFederationConsumerMgr;
 import org.opendaylight.federation.service.api.federationutil.FederationConstants;
 import org.opendaylight.federation.service.api.federationutil.FederationCounters;
 import org.opendaylight.federation.service.api.federationutil.FederationUtils;
+import org.opendaylight.federation.service.api.message.PayloadEncoding;
 import org.opendaylight.federation.service.api.message.SubscribeMessage;
 import org.opendaylight.federation.service.api.message.UnsubscribeMessage;
 import org.opendaylight.mdsal.singleton.common.api.ClusterSingletonService;
@@ -109,31 +112,57 @@ public class FederationConsumerMgr implements IFederationConsumerMgr, IConsumerM
                     readTx.read(LogicalDatastoreType.CONFIGURATION, path).checkedGet();
             if (producerConfigOptional.isPresent()) {
                 FederationSiteConfig producerConfig = producerConfigOptional.get();
+                // the control queue and the dynamic queue are set up concurrently, the subscribe message is sent
+                // once both are ready; the lock isn't held while waiting for the broker
                 LOG.info("creating remote control queue to {}", remoteIp);
-                messageBus.createQueue(producerConfig.getControlQueueName(), producerConfig.getBrokerIp(),
+                CompletionStage<Boolean> controlQueueCreated = messageBus.createQueueAsync(
+                        producerConfig.getControlQueueName(), producerConfig.getBrokerIp(),
                         producerConfig.getMqPortNumber(), producerConfig.getMqUser(), producerConfig.getMqUserPwd());
                 FederationCounters.remote_control_queue_created.inc();
-                try {
-                    RemoteSiteData previousSiteData = remoteIpToPluginConsumer.get(remoteIp);
-                    if (previousSiteData != null) {
-                        messageBus.destroyQueue(previousSiteData.dynamicQueueName);
-                        FederationCounters.dynamic_queue_destroyed.inc();
-                    }
-                } catch (Exception e) {
-                    LOG.warn("failed destroying dynaminc queue to remote ip " + remoteIp, e);
+                CompletionStage<Void> previousQueueDestroyed = CompletableFuture.completedFuture(null);
+                RemoteSiteData previousSiteData = remoteIpToPluginConsumer.get(remoteIp);
+                if (previousSiteData != null) {
+                    previousQueueDestroyed = destroyQueuesAsync(previousSiteData).exceptionally(t -> {
+                        LOG.warn("failed destroying dynaminc queue to remote ip " + remoteIp, t);
+                        return null;
+                    });
                 }
-                messageBus.createQueue(dynamicQueueName, producerConfig.getBrokerIp(), producerConfig.getMqPortNumber(),
-                        producerConfig.getMqUser(), producerConfig.getMqUserPwd());
-                FederationCounters.dynamic_queue_created.inc();
-                RemoteSiteData siteData = new RemoteSiteData(pluginConsumer, dynamicQueueName);
+                PayloadEncoding payloadEncoding = getPayloadEncoding();
+                int partitions = pluginConsumer.supportsPartitionedIngress()
+                        ? Math.max(1, valueOrDefault(config.getDynamicQueuePartitions(), 1)) : 1;
+                IFederationPluginIngress ingress =
+                        partitions > 1 ? new PartitionedIngress(pluginConsumer, partitions) : pluginConsumer;
+                // each partition has its own sequence, so it gets its own wrapper consumer
+                CompletableFuture<?>[] handlersAttached = new CompletableFuture<?>[partitions];
+                for (int i = 0; i < partitions; i++) {
+                    String queueName = FederationUtils.createPartitionQueueName(dynamicQueueName, i);
+                    WrapperConsumer wc = new WrapperConsumer(remoteIp, ingress);
+                    handlersAttached[i] = previousQueueDestroyed
+                            .thenCompose(ignored -> messageBus.createQueueAsync(queueName,
+                                    producerConfig.getBrokerIp(), producerConfig.getMqPortNumber(),
+                                    producerConfig.getMqUser(), producerConfig.getMqUserPwd()))
+                            .thenCompose(created -> messageBus.attachHandlerAsync(queueName, wc))
+                            .toCompletableFuture();
+                    FederationCounters.dynamic_queue_created.inc();
+                }
+                CompletableFuture<Void> handlerAttached = CompletableFuture.allOf(handlersAttached);
+                RemoteSiteData siteData = new RemoteSiteData(pluginConsumer, dynamicQueueName, partitions);
                 remoteIpToPluginConsumer.put(remoteIp, siteData);
-                WrapperConsumer wc = new WrapperConsumer(remoteIp, pluginConsumer);
-                messageBus.attachHandler(dynamicQueueName, wc);
                 SubscribeMessage subscribeMessage =
                         new SubscribeMessage(dynamicQueueName, pluginConsumer.getPluginType(), payload,
-                                config.getSiteIp(), config.getSiteIp(), requestMutualSubscription);
-                messageBus.sendMsg(subscribeMessage, producerConfig.getControlQueueName());
-                FederationCounters.subscription_message_sent.inc();
+                                config.getSiteIp(), config.getSiteIp(), requestMutualSubscription,
+                                Boolean.TRUE.equals(config.isPayloadCompression()), partitions,
+                                pluginConsumer.getBindings(), payloadEncoding);
+                handlerAttached.thenCombine(controlQueueCreated, (attached, created) -> attached)
+                        .thenCompose(attached -> messageBus.sendMsgAsync(subscribeMessage,
+                                producerConfig.getControlQueueName()))
+                        .whenComplete((ignored, error) -> {
+                            if (error != null) {
+                                LOG.error("Failed subscribing to remote ip " + remoteIp, error);
+                            } else {
+                                FederationCounters.subscription_message_sent.inc();
+                            }
+                        });
             } else {
                 LOG.error("Producer config wasn't found for site {} ", remoteIp);
             }
@@ -165,9 +194,18 @@ public class FederationConsumerMgr implements IFederationConsumerMgr, IConsumerM
                         readTx.read(LogicalDatastoreType.CONFIGURATION, path).checkedGet();
                 if (producerConfigOptional.isPresent()) {
                     FederationSiteConfig producerConfig = producerConfigOptional.get();
-                    messageBus.sendMsg(unsubMsg, producerConfig.getControlQueueName());
+                    messageBus.sendMsgAsync(unsubMsg, producerConfig.getControlQueueName())
+                            .whenComplete((ignored, error) -> {
+                                if (error != null) {
+                                    LOG.warn("Failed sending unsubscribe message to remote ip " + remoteIp, error);
+                                }
+                            });
                     FederationCounters.unsubscription_message_sent.inc();
-                    messageBus.destroyQueue(siteData.dynamicQueueName);
+                    destroyQueuesAsync(siteData).whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            LOG.warn("Failed destroying queue " + siteData.dynamicQueueName, error);
+                        }
+                    });
                 } else {
                     LOG.error("Producer config wasn't found for site {} ", remoteIp);
                     return;
@@ -181,13 +219,42 @@ public class FederationConsumerMgr implements IFederationConsumerMgr, IConsumerM
         }
     }
 
+    private CompletionStage<Void> destroyQueuesAsync(RemoteSiteData siteData) {
+        CompletableFuture<?>[] queuesDestroyed = new CompletableFuture<?>[siteData.partitions];
+        for (int i = 0; i < siteData.partitions; i++) {
+            queuesDestroyed[i] = messageBus
+                    .destroyQueueAsync(FederationUtils.createPartitionQueueName(siteData.dynamicQueueName, i))
+                    .toCompletableFuture();
+            FederationCounters.dynamic_queue_destroyed.inc();
+        }
+        return CompletableFuture.allOf(queuesDestroyed);
+    }
+
+    private PayloadEncoding getPayloadEncoding() {
+        if (config.getPayloadEncoding() == null) {
+            return PayloadEncoding.JSON;
+        }
+        try {
+            return PayloadEncoding.forName(config.getPayloadEncoding());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Unknown payload encoding {}, using json", config.getPayloadEncoding());
+            return PayloadEncoding.JSON;
+        }
+    }
+
+    private static int valueOrDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
     private static class RemoteSiteData {
         IFederationPluginIngress pluginIngress;
         String dynamicQueueName;
+        int partitions;
 
-        RemoteSiteData(IFederationPluginIngress pluginIngress, String dynamicQueueName) {
+        RemoteSiteData(IFederationPluginIngress pluginIngress, String dynamicQueueName, int partitions) {
             this.pluginIngress = pluginIngress;
             this.dynamicQueueName = dynamicQueueName;
+            this.partitions = partitions;
         }
     }
 
@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -23,6 +24,7 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
 import org.opendaylight.controller.md.sal.binding.api.ClusteredDataTreeChangeListener;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
@@ -37,8 +39,11 @@ import org.opendaylight.federation.service.api.IFederationProducerMgr;
 import org.opendaylight.federation.service.api.IProducerSubscriptionMgr;
 import org.opendaylight.federation.service.api.federationutil.FederationConstants;
 import org.opendaylight.federation.service.api.federationutil.FederationCounters;
+import org.opendaylight.federation.service.api.federationutil.FederationUtils;
 import org.opendaylight.federation.service.api.message.EndFullSyncFederationMessage;
 import org.opendaylight.federation.service.api.message.FullSyncFailedFederationMessage;
+import org.opendaylight.federation.service.api.message.PayloadEncoding;
+import org.opendaylight.federation.service.api.message.SequencedFederationMessage;
 import org.opendaylight.federation.service.api.message.StartFullSyncFederationMessage;
 import org.opendaylight.federation.service.api.message.SubscribeMessage;
 import org.opendaylight.federation.service.api.message.UnsubscribeMessage;
@@ -74,9 +79,11 @@ public class FederationProducerMgr
     private final ClusterSingletonServiceProvider clusterSingletonServiceProvider;
     private ClusterSingletonServiceRegistration clusterRegistrationHandle;
     private final ScheduledThreadPoolExecutor retryExecutor = new ScheduledThreadPoolExecutor(1);
+    private final ScheduledThreadPoolExecutor batchFlushExecutor = new ScheduledThreadPoolExecutor(1);
     private ScheduledFuture<?> retryHandle;
     private final IConsumerManagement consumerMgr;
     private static final int RETRY_INTERVAL = 10;
+    private static final int QUEUE_OPERATION_TIMEOUT = 30;
 
     public FederationProducerMgr(IMessageBusClient messageBus, DataBroker db, FederationConfigData config,
         ClusterSingletonServiceProvider clusterSingletonServiceProvider, IConsumerManagement consumerMgr) {
@@ -111,8 +118,10 @@ public class FederationProducerMgr
         } catch (Throwable t) {
             LOG.error("Couldn't unregister from cluster singleton service", t);
         }
+        batchFlushExecutor.shutdownNow();
         LOG.info("Destroying control queue {}", config.getControlQueueName());
-        messageBus.destroyQueue(config.getControlQueueName());
+        List<CompletableFuture<Void>> queuesDestroyed = new ArrayList<>();
+        queuesDestroyed.add(messageBus.destroyQueueAsync(config.getControlQueueName()).toCompletableFuture());
 
         for (Entry<String, ConsumerState> entry : consumerIdToState.entrySet()) {
             String consumerId = entry.getKey();
@@ -125,8 +134,18 @@ public class FederationProducerMgr
                 LOG.warn("Waited for plugin to abort for 5 seconds, but recieved {}", e.getMessage());
             }
             state.pluginEgress.cleanup();
-            LOG.info("Destroying dynamic queue {}", state.dynamicQueueName);
-            messageBus.destroyQueue(state.dynamicQueueName);
+            for (QueuePartition partition : state.partitions) {
+                LOG.info("Destroying dynamic queue {}", partition.queueName);
+                queuesDestroyed.add(messageBus.destroyQueueAsync(partition.queueName).toCompletableFuture());
+            }
+        }
+        // the queues are deleted concurrently, the bus may go away once they all are
+        try {
+            CompletableFuture.allOf(queuesDestroyed.toArray(new CompletableFuture<?>[0]))
+                .get(QUEUE_OPERATION_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            LOG.warn("Waited for queues to be destroyed for {} seconds, but recieved {}", QUEUE_OPERATION_TIMEOUT,
+                e.getMessage());
         }
     }
 
@@ -149,18 +168,43 @@ public class FederationProducerMgr
             LOG.info("Unsubscribe former data of consumer if exists");
             unsubscribeConsumer(msg.getContextId());
             LOG.info("Create new consumer context");
-            messageBus.createQueue(msg.getDynamicQueueName(), config.getMqBrokerIp(), config.getMqPortNumber(),
-                config.getMqUser(), config.getMqUserPwd());
+            // the egress plugin is prepared while the broker creates the queues
+            List<CompletableFuture<Boolean>> queuesCreated = new ArrayList<>();
+            for (int i = 0; i < msg.getPartitions(); i++) {
+                queuesCreated.add(messageBus.createQueueAsync(
+                    FederationUtils.createPartitionQueueName(msg.getDynamicQueueName(), i), config.getMqBrokerIp(),
+                    config.getMqPortNumber(), config.getMqUser(), config.getMqUserPwd()).toCompletableFuture());
+            }
             ConsumerState consumerState = createConsumerContext(msg, pluginFactory);
             List<ListenerData> listenersData = consumerState.pluginEgress.getListenersData();
-            publishStartFullSyncMsg(msg.getDynamicQueueName(), msg.getContextId());
+            String consumerId = msg.getContextId();
+            for (int i = 0; i < queuesCreated.size(); i++) {
+                String queueName = consumerState.partitions.get(i).queueName;
+                try {
+                    if (!Boolean.TRUE.equals(queuesCreated.get(i).get(QUEUE_OPERATION_TIMEOUT, TimeUnit.SECONDS))) {
+                        LOG.warn("Dynamic queue {} wasn't created", queueName);
+                    }
+                } catch (ExecutionException | TimeoutException e) {
+                    LOG.warn("Waited for dynamic queue {} to be created, but recieved {}", queueName, e.getMessage());
+                }
+                if (msg.isAcceptsCompressedPayload()) {
+                    messageBus.setPayloadCompression(queueName, true);
+                }
+                messageBus.setPublishFailureListener(queueName,
+                    (failedQueueName, failedMessages, reason) -> handlePublishFailure(consumerId, failedMessages,
+                        reason));
+                messageBus.setBackpressureListener(queueName,
+                    (backpressuredQueueName, applied) -> handleBackpressure(consumerId, backpressuredQueueName,
+                        applied));
+            }
+            publishStartFullSyncMsg(consumerState);
             try {
                 handleFullSync(consumerState, listenersData);
             } catch (Throwable t) {
-                publishFullSyncFailedMsg(msg.getDynamicQueueName(), msg.getContextId());
+                publishFullSyncFailedMsg(consumerState);
                 return;
             }
-            publishEndFullSyncMsg(msg.getDynamicQueueName(), msg.getContextId());
+            publishEndFullSyncMsg(consumerState);
             createSteadySyncListeners(consumerState, listenersData);
             if (msg.isRequestMutualSubscription()) {
                 consumerMgr.triggerPluginResubscription(msg.getSubscriberIp());
@@ -170,6 +214,65 @@ public class FederationProducerMgr
         }
     }
 
+    private void handlePublishFailure(String consumerId, int failedMessages, String reason) {
+        FederationCounters.msg_publish_failed.inc();
+        ConsumerState state = consumerIdToState.get(consumerId);
+        if (state != null) {
+            long totalFailed = state.failedMessages.addAndGet(failedMessages);
+            LOG.error("{} messages to consumer {} were lost ({} in total since subscription): {}", failedMessages,
+                consumerId, totalFailed, reason);
+        }
+    }
+
+    private void handleBackpressure(String consumerId, String queueName, boolean applied) {
+        ConsumerState state = consumerIdToState.get(consumerId);
+        if (state == null) {
+            return;
+        }
+        if (applied) {
+            FederationCounters.backpressure_applied.inc();
+            LOG.warn("Message bus applies backpressure on queue {} of consumer {}", queueName, consumerId);
+        } else {
+            LOG.info("Message bus released backpressure on queue {} of consumer {}", queueName, consumerId);
+        }
+        synchronized (state) {
+            boolean anyBackpressured = false;
+            for (QueuePartition partition : state.partitions) {
+                if (partition.queueName.equals(queueName)) {
+                    partition.backpressured = applied;
+                }
+                anyBackpressured |= partition.backpressured;
+            }
+            // the plugin is told when the first of its queues gets backpressure, and when the last is released
+            if (anyBackpressured == state.backpressured) {
+                return;
+            }
+            state.backpressured = anyBackpressured;
+            try {
+                state.pluginEgress.backpressureChanged(anyBackpressured);
+            } catch (Throwable t) {
+                LOG.error("Egress plugin of consumer {} failed handling backpressure", consumerId, t);
+            }
+        }
+    }
+
+    @Override
+    public boolean isBackpressured(String contextId) {
+        ConsumerState state = consumerIdToState.get(contextId);
+        if (state == null) {
+            return false;
+        }
+        if (state.backpressured) {
+            return true;
+        }
+        for (QueuePartition partition : state.partitions) {
+            if (messageBus.isBackpressured(partition.queueName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private void createSteadySyncListeners(ConsumerState consumerState, List<ListenerData> listenersData) {
         for (ListenerData data : listenersData) {
@@ -200,11 +303,29 @@ public class FederationProducerMgr
     private ConsumerState createConsumerContext(SubscribeMessage msg, IPluginFactory pluginFactory) {
         IFederationPluginEgress pluginEgress =
             pluginFactory.createEgressPlugin(msg.getPayload(), msg.getDynamicQueueName(), msg.getContextId());
-        ConsumerState consumerState = new ConsumerState(pluginEgress, msg.getDynamicQueueName());
+        ConsumerState consumerState = new ConsumerState(pluginEgress, msg.getBindings(), msg.getPayloadEncoding());
+        int batchMaxMessages = valueOrDefault(config.getBatchMaxMessages(), 1);
+        for (int i = 0; i < msg.getPartitions(); i++) {
+            QueuePartition partition =
+                new QueuePartition(FederationUtils.createPartitionQueueName(msg.getDynamicQueueName(), i));
+            if (batchMaxMessages > 1) {
+                // entities that are passed by reference are never encoded, so their batches are only bounded by
+                // count
+                partition.batcher = messageBus.serializesMessages()
+                    ? new EntityMessageBatcher(batchMaxMessages, valueOrDefault(config.getBatchMaxBytes(), 1048576))
+                    : new EntityMessageBatcher(batchMaxMessages);
+                partition.batchLingerMillis = valueOrDefault(config.getBatchLingerMillis(), 10);
+            }
+            consumerState.partitions.add(partition);
+        }
         consumerIdToState.put(msg.getContextId(), consumerState);
         return consumerState;
     }
 
+    private static int valueOrDefault(Integer value, int defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+
     @Override
     public synchronized void handleUnsubscribeMsg(UnsubscribeMessage msg) {
         if (!unsubscribeConsumer(msg.getContextId())) {
@@ -227,10 +348,17 @@ public class FederationProducerMgr
                 handle.close();
             }
             state.pluginEgress.cleanup();
-            try {
-                messageBus.destroyQueue(state.dynamicQueueName);
-            } catch (Throwable t) {
-                LOG.warn("Destroying queue {} failed", t);
+            for (QueuePartition partition : state.partitions) {
+                synchronized (partition) {
+                    // the consumer is going away, so whatever is still batched is dropped
+                    partition.batcher = null;
+                }
+                // a new queue of the same name is only created after this completes, so there is no need to wait
+                messageBus.destroyQueueAsync(partition.queueName).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        LOG.warn("Destroying queue {} failed", partition.queueName, error);
+                    }
+                });
             }
             consumerIdToState.remove(consumerId);
         } else {
@@ -241,18 +369,99 @@ public class FederationProducerMgr
         return removed;
     }
 
-    private long getNextSequence(String consumerId) {
-        return consumerIdToState.get(consumerId).generalSequence.getAndIncrement();
-    }
-
+    /*
+     * The queue name is the dynamic queue the plugin was created with; the message goes to the partition of it that
+     * the key of its entity hashes to, which is that queue itself unless the consumer asked for partitions.
+     */
     @Override
-    public void publishMessage(EntityFederationMessage<? extends DataObject> msg, String queueName, String consumerId) {
+    public void publishMessage(EntityFederationMessage<? extends DataObject> entityMsg, String queueName,
+        String consumerId) {
         FederationCounters.msg_published.inc();
-        WrapperEntityFederationMessage wrapperMsg =
-            (WrapperEntityFederationMessage) new WrapperEntityFederationMessage(msg)
-                .setSequenceId(getNextSequence(consumerId));
-        messageBus.sendMsg(wrapperMsg, queueName);
+        ConsumerState state = consumerIdToState.get(consumerId);
+        if (!state.isBound(entityMsg.getRoutingKey())) {
+            // filtered before it takes a sequence id, so the consumer sees no gap
+            FederationCounters.msg_filtered.inc();
+            return;
+        }
+        EntityFederationMessage<? extends DataObject> msg = entityMsg.withPayloadEncoding(state.payloadEncoding);
+        if (messageBus.serializesMessages()) {
+            try {
+                // the bus encodes the entity anyway and reuses the bytes, doing it before the entity takes a
+                // sequence id or a place in a batch keeps one that can't be encoded from leaving a gap the consumer
+                // resyncs on, or from taking the rest of its batch down with it
+                msg.getPayloadSize();
+            } catch (RuntimeException e) {
+                FederationCounters.msg_not_encoded.inc();
+                throw new IllegalArgumentException("Failed encoding " + msg.getInputClassType() + " as "
+                    + msg.getPayloadEncoding() + " for consumer " + consumerId, e);
+            }
+        }
+        // the key is hashed only for consumers with several partitions, on the message the plugin created so the
+        // hash is shared by all the consumers
+        QueuePartition partition = state.partitions.size() == 1 ? state.partitions.get(0)
+            : state.partitions.get(FederationUtils.partitionOf(entityMsg.getKeyHash(), state.partitions.size()));
+        // the bus only keeps the order of sends per thread, so the sequence and the send must not interleave with
+        // other threads publishing to the same partition
+        synchronized (partition) {
+            long sequenceId = partition.generalSequence.getAndIncrement();
+            if (partition.batcher == null) {
+                WrapperEntityFederationMessage wrapperMsg =
+                    (WrapperEntityFederationMessage) new WrapperEntityFederationMessage(msg).setSequenceId(sequenceId);
+                messageBus.sendMsg(wrapperMsg, partition.queueName);
+                return;
+            }
+            boolean wasEmpty = partition.batcher.isEmpty();
+            SequencedFederationMessage fullBatch = partition.batcher.add(msg, sequenceId);
+            if (fullBatch != null) {
+                FederationCounters.batch_sent.inc();
+                messageBus.sendMsg(fullBatch, partition.queueName);
+            } else if (wasEmpty) {
+                batchFlushExecutor.schedule(() -> lingerExpired(partition), partition.batchLingerMillis,
+                    TimeUnit.MILLISECONDS);
+            }
+        }
+    }
 
+    private void lingerExpired(QueuePartition partition) {
+        synchronized (partition) {
+            if (partition.backpressured && partition.batcher != null && !partition.batcher.isEmpty()) {
+                // let the batch fill up instead of sending small messages into a blocked bus; full batches are
+                // still sent by publishMessage
+                batchFlushExecutor.schedule(() -> lingerExpired(partition), partition.batchLingerMillis,
+                    TimeUnit.MILLISECONDS);
+                return;
+            }
+            try {
+                flushBatch(partition);
+            } catch (Throwable t) {
+                // nobody else would hear of it, the executor keeps what a scheduled task throws to itself
+                LOG.error("Failed sending the batch of queue {}", partition.queueName, t);
+            }
+        }
+    }
+
+    private void flushBatch(QueuePartition partition) {
+        synchronized (partition) {
+            if (partition.batcher == null) {
+                return;
+            }
+            SequencedFederationMessage batch = partition.batcher.drain();
+            if (batch != null) {
+                FederationCounters.batch_sent.inc();
+                messageBus.sendMsg(batch, partition.queueName);
+            }
+        }
+    }
+
+    /*
+     * Sends a control message that takes the next sequence id of the partition, after everything that is still
+     * waiting in its batch.
+     */
+    private void sendSequenced(QueuePartition partition, LongFunction<SequencedFederationMessage> factory) {
+        synchronized (partition) {
+            flushBatch(partition);
+            messageBus.sendMsg(factory.apply(partition.generalSequence.getAndIncrement()), partition.queueName);
+        }
     }
 
     @Override
@@ -281,37 +490,75 @@ public class FederationProducerMgr
     }
 
     private class ConsumerState {
-        public AtomicLong generalSequence = new AtomicLong(1);
+        public AtomicLong failedMessages = new AtomicLong();
         public IFederationPluginEgress pluginEgress;
         public List<ListenerRegistration<? extends DataObject>> registrationHandles = new ArrayList<>();
-        public String dynamicQueueName;
+        public List<QueuePartition> partitions = new ArrayList<>();
+        // whether any of the partitions is backpressured, only changed while holding this
+        public volatile boolean backpressured;
+        // empty when the consumer wants all the entities
+        public List<String> bindings;
+        public ConcurrentHashMap<String, Boolean> routingKeyToBound = new ConcurrentHashMap<>();
+
+        public PayloadEncoding payloadEncoding;
 
-        ConsumerState(IFederationPluginEgress egressPlugin, String dynamicQueueName) {
+        ConsumerState(IFederationPluginEgress egressPlugin, List<String> bindings, PayloadEncoding payloadEncoding) {
             this.pluginEgress = egressPlugin;
-            this.dynamicQueueName = dynamicQueueName;
+            this.bindings = bindings;
+            this.payloadEncoding = payloadEncoding;
+        }
+
+        /*
+         * An egress plugin sends few entity types, so matching the bindings once per routing key is enough.
+         */
+        boolean isBound(String routingKey) {
+            if (bindings.isEmpty() || routingKey == null) {
+                return true;
+            }
+            return routingKeyToBound.computeIfAbsent(routingKey,
+                key -> bindings.stream().anyMatch(binding -> FederationUtils.routingKeyMatches(binding, key)));
         }
     }
 
-    private void publishStartFullSyncMsg(String queueName, String consumerId) {
-        LOG.info("Sent start full sync message to queue {} ", queueName);
-        FederationCounters.start_full_sync_msg_sent.inc();
-        StartFullSyncFederationMessage startFullSyncMsg = new StartFullSyncFederationMessage();
-        messageBus.sendMsg(startFullSyncMsg, queueName);
+    /*
+     * One of the dynamic queues of a consumer, with its own sequence space.
+     */
+    private static class QueuePartition {
+        public final String queueName;
+        public AtomicLong generalSequence = new AtomicLong(1);
+        // null when batching is disabled
+        public EntityMessageBatcher batcher;
+        public long batchLingerMillis;
+        public volatile boolean backpressured;
+
+        QueuePartition(String queueName) {
+            this.queueName = queueName;
+        }
     }
 
-    private void publishFullSyncFailedMsg(String queueName, String consumerId) {
-        LOG.info("Sent full sync failed message to queue {} ", queueName);
-        FederationCounters.full_sync_failed_msg_sent.inc();
-        FullSyncFailedFederationMessage fullSyncFailedMsg =
-            new FullSyncFailedFederationMessage(getNextSequence(consumerId));
-        messageBus.sendMsg(fullSyncFailedMsg, queueName);
+    private void publishStartFullSyncMsg(ConsumerState state) {
+        for (QueuePartition partition : state.partitions) {
+            LOG.info("Sent start full sync message to queue {} ", partition.queueName);
+            FederationCounters.start_full_sync_msg_sent.inc();
+            StartFullSyncFederationMessage startFullSyncMsg = new StartFullSyncFederationMessage();
+            messageBus.sendMsg(startFullSyncMsg, partition.queueName);
+        }
     }
 
-    private void publishEndFullSyncMsg(String queueName, String consumerId) {
-        LOG.info("Sent end full sync message to queue {} ", queueName);
-        FederationCounters.end_full_sync_msg_sent.inc();
-        EndFullSyncFederationMessage endFullSyncMsg = new EndFullSyncFederationMessage(getNextSequence(consumerId));
-        messageBus.sendMsg(endFullSyncMsg, queueName);
+    private void publishFullSyncFailedMsg(ConsumerState state) {
+        for (QueuePartition partition : state.partitions) {
+            LOG.info("Sent full sync failed message to queue {} ", partition.queueName);
+            FederationCounters.full_sync_failed_msg_sent.inc();
+            sendSequenced(partition, FullSyncFailedFederationMessage::new);
+        }
+    }
+
+    private void publishEndFullSyncMsg(ConsumerState state) {
+        for (QueuePartition partition : state.partitions) {
+            LOG.info("Sent end full sync message to queue {} ", partition.queueName);
+            FederationCounters.end_full_sync_msg_sent.inc();
+            sendSequenced(partition, EndFullSyncFederationMessage::new);
+        }
     }
 
     @Override
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.impl;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.opendaylight.federation.plugin.spi.IFederationPluginIngress;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * Lets the {@link WrapperConsumer}s of all the partitions of a subscription share one plugin. Each partition has its
+ * own Full Sync stage, so the plugin is told the Full Sync began when the first partition begins it, and ended once
+ * every partition ended it. A resubscription is requested only once, since it replaces all the partitions.
+ */
+class PartitionedIngress implements IFederationPluginIngress {
+
+    private final IFederationPluginIngress pluginIngress;
+    private final int partitions;
+    private final AtomicBoolean resubscribed = new AtomicBoolean(false);
+    // guarded by this
+    private int begun = 0;
+    private int ended = 0;
+    private boolean failed = false;
+
+    PartitionedIngress(IFederationPluginIngress pluginIngress, int partitions) {
+        this.pluginIngress = pluginIngress;
+        this.partitions = partitions;
+    }
+
+    /*
+     * The partitions that begin later wait here until the plugin is ready, so no message reaches it before.
+     */
+    @Override
+    public synchronized void beginFullSync() {
+        if (begun++ == 0) {
+            pluginIngress.beginFullSync();
+        }
+    }
+
+    @Override
+    public synchronized void fullSyncFailed() {
+        if (!failed) {
+            failed = true;
+            pluginIngress.fullSyncFailed();
+        }
+    }
+
+    @Override
+    public synchronized void endFullSync() {
+        if (++ended == partitions && !failed) {
+            pluginIngress.endFullSync();
+        }
+    }
+
+    @Override
+    public void consumeMsg(EntityFederationMessage<? extends DataObject> msg) {
+        pluginIngress.consumeMsg(msg);
+    }
+
+    @Override
+    public void resubscribe() {
+        if (resubscribed.compareAndSet(false, true)) {
+            pluginIngress.resubscribe();
+        }
+    }
+
+    @Override
+    public String getPluginType() {
+        return pluginIngress.getPluginType();
+    }
+
+    @Override
+    public boolean supportsPartitionedIngress() {
+        return true;
+    }
+
+    @Override
+    public CompletionStage<Void> abort() {
+        return pluginIngress.abort();
+    }
+}
@@ -11,13 +11,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.opendaylight.federation.plugin.spi.IFederationPluginIngress;
 import org.opendaylight.federation.service.api.federationutil.FederationCounters;
 import org.opendaylight.federation.service.api.federationutil.FederationUtils;
+import org.opendaylight.federation.service.api.message.BatchEntityFederationMessage;
 import org.opendaylight.federation.service.api.message.EndFullSyncFederationMessage;
 import org.opendaylight.federation.service.api.message.FullSyncFailedFederationMessage;
 import org.opendaylight.federation.service.api.message.SequencedFederationMessage;
 import org.opendaylight.federation.service.api.message.StartFullSyncFederationMessage;
 import org.opendaylight.federation.service.api.message.WrapperEntityFederationMessage;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
 import org.opendaylight.messagequeue.AbstractFederationMessage;
 import org.opendaylight.messagequeue.IGeneralFederationConsumer;
+import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.slf4j.Logger;
 
 public class WrapperConsumer implements IGeneralFederationConsumer {
@@ -60,7 +63,7 @@ public class WrapperConsumer implements IGeneralFederationConsumer {
                 }
                 return;
             } else {
-                nextExpectedSequence = wrappedMsg.getSequenceId() + 1;
+                nextExpectedSequence = wrappedMsg.getLastSequenceId() + 1;
             }
         }
         if (msg instanceof StartFullSyncFederationMessage) {
@@ -84,11 +87,39 @@ public class WrapperConsumer implements IGeneralFederationConsumer {
         } else if (msg instanceof WrapperEntityFederationMessage) {
             WrapperEntityFederationMessage entityMessage = (WrapperEntityFederationMessage) msg;
             pluginConsumer.consumeMsg(entityMessage.getPayload());
+        } else if (msg instanceof BatchEntityFederationMessage) {
+            BatchEntityFederationMessage batchMessage = (BatchEntityFederationMessage) msg;
+            for (EntityFederationMessage<? extends DataObject> payload : batchMessage.getPayloads()) {
+                pluginConsumer.consumeMsg(payload);
+            }
         } else {
             logger.warn("Unknown message: " + msg);
         }
     }
 
+    /*
+     * Decodes the payloads while the transport still decodes other messages, so consumeMsg and the plugin find
+     * them ready. A payload that fails to decode here fails again when the plugin asks for it, and is reported then.
+     */
+    @Override
+    public void decodeAhead(AbstractFederationMessage msg) {
+        if (aborted.get()) {
+            return;
+        }
+        try {
+            if (msg instanceof WrapperEntityFederationMessage) {
+                ((WrapperEntityFederationMessage) msg).getPayload().decodeAhead();
+            } else if (msg instanceof BatchEntityFederationMessage) {
+                for (EntityFederationMessage<? extends DataObject> payload
+                        : ((BatchEntityFederationMessage) msg).getPayloads()) {
+                    payload.decodeAhead();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Failed decoding ahead {}", msg, e);
+        }
+    }
+
     private boolean mismatchBetweenExpectedSequenceToActualSequence(SequencedFederationMessage wrappedMsg) {
         return wrappedMsg.getSequenceId() != nextExpectedSequence;
     }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+import org.opendaylight.federation.service.api.message.BatchEntityFederationMessage;
+import org.opendaylight.federation.service.api.message.SequencedFederationMessage;
+import org.opendaylight.federation.service.api.message.WrapperEntityFederationMessage;
+import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+
+public class EntityMessageBatcherTest {
+
+    @Test
+    public void fullBatchIsReturned() {
+        EntityMessageBatcher batcher = new EntityMessageBatcher(3, Integer.MAX_VALUE);
+        assertNull(batcher.add(entityMsg(), 5));
+        assertNull(batcher.add(entityMsg(), 6));
+        SequencedFederationMessage batch = batcher.add(entityMsg(), 7);
+
+        assertTrue(batch instanceof BatchEntityFederationMessage);
+        assertEquals(5, batch.getSequenceId());
+        assertEquals(7, batch.getLastSequenceId());
+        assertEquals(3, ((BatchEntityFederationMessage) batch).getPayloads().size());
+        assertTrue(batcher.isEmpty());
+    }
+
+    @Test
+    public void drainOfSingleMsgSendsWrapper() {
+        EntityMessageBatcher batcher = new EntityMessageBatcher(3, Integer.MAX_VALUE);
+        assertNull(batcher.drain());
+        batcher.add(entityMsg(), 8);
+        SequencedFederationMessage msg = batcher.drain();
+
+        assertTrue(msg instanceof WrapperEntityFederationMessage);
+        assertEquals(8, msg.getSequenceId());
+        assertNull(batcher.drain());
+    }
+
+    @Test
+    public void batchBoundedByCountNeverEncodes() {
+        EntityMessageBatcher batcher = new EntityMessageBatcher(2);
+        EntityFederationMessage<?> first = mock(EntityFederationMessage.class);
+        EntityFederationMessage<?> second = mock(EntityFederationMessage.class);
+        assertNull(batcher.add(first, 1));
+        SequencedFederationMessage batch = batcher.add(second, 2);
+
+        assertEquals(2, ((BatchEntityFederationMessage) batch).getPayloads().size());
+        verify(first, never()).getPayloadSize();
+        verify(second, never()).getPayloadSize();
+    }
+
+    @SuppressWarnings("rawtypes")
+    private EntityFederationMessage entityMsg() {
+        return new EntityFederationMessage();
+    }
+}
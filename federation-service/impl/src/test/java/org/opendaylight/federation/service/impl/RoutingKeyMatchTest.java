@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Hewlett Packard Enterprise, Co. and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.federation.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opendaylight.federation.service.api.federationutil.FederationUtils;
+
+public class RoutingKeyMatchTest {
+
+    // binding, routing key, expected match
+    private static final Object[][] CASES = {
+        // plain words
+        { "CONFIGURATION.org.example.Entity", "CONFIGURATION.org.example.Entity", true },
+        { "CONFIGURATION.org.example.Entity", "OPERATIONAL.org.example.Entity", false },
+        { "CONFIGURATION.org.example", "CONFIGURATION.org.example.Entity", false },
+        { "CONFIGURATION.org.example.Entity.Child", "CONFIGURATION.org.example.Entity", false },
+
+        // # at the start
+        { "#.Entity", "CONFIGURATION.org.example.Entity", true },
+        { "#.Entity", "Entity", true },
+        { "#.Entity", "CONFIGURATION.org.example.Other", false },
+        { "#.example.Entity", "example.Entity", true },
+
+        // # in the middle
+        { "CONFIGURATION.#.Entity", "CONFIGURATION.org.example.Entity", true },
+        { "CONFIGURATION.#.Entity", "CONFIGURATION.Entity", true },
+        { "CONFIGURATION.#.Entity", "OPERATIONAL.org.example.Entity", false },
+        { "CONFIGURATION.#.Entity", "CONFIGURATION.org.example.Entity.Child", false },
+        { "CONFIGURATION.#.example.#.Entity", "CONFIGURATION.org.example.sub.Entity", true },
+        { "CONFIGURATION.#.example.#.Entity", "CONFIGURATION.org.sample.sub.Entity", false },
+
+        // # at the end
+        { "CONFIGURATION.#", "CONFIGURATION.org.example.Entity", true },
+        { "CONFIGURATION.#", "CONFIGURATION", true },
+        { "CONFIGURATION.#", "OPERATIONAL.org.example.Entity", false },
+        { "#", "CONFIGURATION.org.example.Entity", true },
+        { "#", "", true },
+        { "#.#", "CONFIGURATION", true },
+
+        // * stands for exactly one word
+        { "*.org.example.Entity", "CONFIGURATION.org.example.Entity", true },
+        { "*.org.example.Entity", "org.example.Entity", false },
+        { "CONFIGURATION.*", "CONFIGURATION.org.example.Entity", false },
+        { "CONFIGURATION.*", "CONFIGURATION", false },
+        { "CONFIGURATION.*.*.*", "CONFIGURATION.org.example", false },
+        { "CONFIGURATION.*.*.*", "CONFIGURATION.org.example.Entity", true },
+        { "*", "", true },
+        { "*.*", "CONFIGURATION", false },
+
+        // * and # together
+        { "*.#.Entity", "CONFIGURATION.Entity", true },
+        { "*.#.Entity", "Entity", false },
+        { "#.*", "", true },
+        { "#.*", "CONFIGURATION.org", true },
+
+        // empty words are words
+        { "CONFIGURATION..Entity", "CONFIGURATION..Entity", true },
+        { "CONFIGURATION.*.Entity", "CONFIGURATION..Entity", true },
+        { "CONFIGURATION.Entity", "CONFIGURATION..Entity", false },
+        { "", "", true },
+        { "", "CONFIGURATION", false },
+    };
+
+    @Test
+    public void routingKeysMatchLikeATopicExchange() {
+        for (Object[] testCase : CASES) {
+            String binding = (String) testCase[0];
+            String routingKey = (String) testCase[1];
+            assertEquals("binding '" + binding + "' against '" + routingKey + "'", testCase[2],
+                FederationUtils.routingKeyMatches(binding, routingKey));
+        }
+    }
+
+    @Test
+    public void routingKeyOfEntity() {
+        assertEquals("CONFIGURATION.java.lang.Runnable",
+            FederationUtils.createRoutingKey("CONFIGURATION", Runnable.class));
+        assertTrue(FederationUtils.routingKeyMatches("CONFIGURATION.java.lang.Runnable",
+            FederationUtils.createRoutingKey("CONFIGURATION", Runnable.class)));
+    }
+}
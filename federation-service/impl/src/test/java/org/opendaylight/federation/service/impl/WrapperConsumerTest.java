@@ -9,14 +9,18 @@ package org.opendaylight.federation.service.impl;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.opendaylight.federation.service.api.message.BatchEntityFederationMessage;
 import org.opendaylight.federation.service.api.message.EndFullSyncFederationMessage;
 import org.opendaylight.federation.service.api.message.StartFullSyncFederationMessage;
 import org.opendaylight.federation.service.api.message.WrapperEntityFederationMessage;
 import org.opendaylight.federation.service.common.api.EntityFederationMessage;
+import org.opendaylight.yangtools.yang.binding.DataObject;
 
 @RunWith(MockitoJUnitRunner.class)
 public class WrapperConsumerTest {
@@ -79,6 +83,64 @@ public class WrapperConsumerTest {
         assertEquals(1, pluginIngressStub.getMismatchCount());
     }
 
+    @Test
+    public void batch__multipleMsgs() {
+        testedClass.consumeMsg(startFullSyncMsg());
+        testedClass.consumeMsg(buildBatch(1, 3));
+        testedClass.consumeMsg(buildMsg(4));
+        testedClass.consumeMsg(endFullSyncMsg(5));
+
+        assertEquals(1, pluginIngressStub.getBeginCount());
+        assertEquals(4, pluginIngressStub.getConsumedMsgs().size());
+        assertEquals(1, pluginIngressStub.getEndCount());
+        assertEquals(0, pluginIngressStub.getMismatchCount());
+    }
+
+    @Test
+    public void mismatch__batchWithGap() {
+        testedClass.consumeMsg(startFullSyncMsg());
+        testedClass.consumeMsg(buildBatch(1, 2));
+        testedClass.consumeMsg(buildBatch(4, 2));
+
+        assertEquals(2, pluginIngressStub.getConsumedMsgs().size());
+        assertEquals(1, pluginIngressStub.getMismatchCount());
+    }
+
+    @Test
+    public void partitions__fullSyncSpansAllPartitions() {
+        PartitionedIngress ingress = new PartitionedIngress(pluginIngressStub, 2);
+        WrapperConsumer first = new WrapperConsumer("1.1.1.1", ingress);
+        WrapperConsumer second = new WrapperConsumer("1.1.1.1", ingress);
+        first.consumeMsg(startFullSyncMsg());
+        first.consumeMsg(buildMsg(1));
+        second.consumeMsg(startFullSyncMsg());
+        first.consumeMsg(endFullSyncMsg(2));
+
+        assertEquals(1, pluginIngressStub.getBeginCount());
+        assertEquals(0, pluginIngressStub.getEndCount());
+
+        second.consumeMsg(buildMsg(1));
+        second.consumeMsg(endFullSyncMsg(2));
+
+        assertEquals(1, pluginIngressStub.getBeginCount());
+        assertEquals(2, pluginIngressStub.getConsumedMsgs().size());
+        assertEquals(1, pluginIngressStub.getEndCount());
+    }
+
+    @Test
+    public void partitions__mismatchResubscribesOnce() {
+        PartitionedIngress ingress = new PartitionedIngress(pluginIngressStub, 2);
+        WrapperConsumer first = new WrapperConsumer("1.1.1.1", ingress);
+        WrapperConsumer second = new WrapperConsumer("1.1.1.1", ingress);
+        first.consumeMsg(startFullSyncMsg());
+        second.consumeMsg(startFullSyncMsg());
+        first.consumeMsg(buildMsg(2));
+        second.consumeMsg(buildMsg(3));
+
+        assertEquals(0, pluginIngressStub.getConsumedMsgs().size());
+        assertEquals(1, pluginIngressStub.getMismatchCount());
+    }
+
     private StartFullSyncFederationMessage startFullSyncMsg() {
         return new StartFullSyncFederationMessage();
     }
@@ -87,6 +149,15 @@ public class WrapperConsumerTest {
         return new EndFullSyncFederationMessage(sequence);
     }
 
+    @SuppressWarnings("rawtypes")
+    private BatchEntityFederationMessage buildBatch(long firstSequenceId, int size) {
+        List<EntityFederationMessage<? extends DataObject>> payloads = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            payloads.add(new EntityFederationMessage());
+        }
+        return new BatchEntityFederationMessage(firstSequenceId, payloads);
+    }
+
     @SuppressWarnings("rawtypes")
     private WrapperEntityFederationMessage buildMsg(long sequenceId) {
         return (WrapperEntityFederationMessage) new WrapperEntityFederationMessage(new EntityFederationMessage())